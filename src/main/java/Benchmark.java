@@ -0,0 +1,285 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Simple timing of the different decoders. Every decoder is run a few times so the JIT has warmed up
+before measuring. The fastest round is reported. The output goes through the same kind of BufferedOutputStream as in Main.decode.
+The encoder is timed on a source file with fewer rounds, because encoding is much slower. It is timed for a few
+batch sizes, to compare the time and the size against the normal encoder (batch size 1). Repetitive input such as
+log files is the slowest case, because its symbols get long.
+The stream decoders read all the fields of a file with a field index after each other, or the first field when there is
+no index. 'Decoder byte[]' reads them into an array of exactly the right size. Archives in blocks are not read by the
+stream decoders, because of the block headers. 'FieldReader all' reads every file with FieldReader.readAll.
+'Decoder tables' loads the decode tables of an archive that has them instead of reading the dictionary. The low memory Decoder is timed with a cache of LOW_MEMORY_CACHE bytes. Archives with more fields are also decoded as a whole with ParallelDecoder.
+For archives in blocks it is checked that every block starts at a multiple of the block size in the file.
+ */
+
+import decoders.Archive;
+import decoders.BlockDirectory;
+import decoders.Decoder;
+import decoders.FieldIndex;
+import decoders.FieldReader;
+import decoders.ParallelDecoder;
+import decoders.TreeDecoder;
+import encoders.Encoder;
+import io.BitStreamReader;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+class Benchmark {
+
+    private static final int ROUNDS = 10;
+    private static final int LOW_MEMORY_CACHE = 1 << 16;
+    private static final int ENCODE_ROUNDS = 3;
+    private static final int[] BATCH_SIZES = {1, 8, 64, 512};
+
+    static void encode(String filenameIn) throws Exception {
+        byte[][] input = new byte[][]{Files.readAllBytes(new File(filenameIn).toPath())};
+        ArrayList<String> results = new ArrayList<>();
+        for(int batchSize : BATCH_SIZES) {
+            long[] nanos = new long[2];
+            long size = 0;
+            for (int i = 0; i < ENCODE_ROUNDS; i++) {
+                CountingOutputStream output = new CountingOutputStream();
+                long start = System.nanoTime();
+                Encoder.encodeBatched(input, output, output, 0, batchSize);
+                record(nanos, i, 0, System.nanoTime() - start);
+                size = output.count;
+            }
+            results.add(String.format(Locale.ROOT, "%-16s %8.2f s, %8.2f MB/s, %10d bytes",
+                    "Encoder batch " + batchSize, nanos[1] / 1e9, input[0].length / (nanos[1] / 1e9) / 1e6, size));
+        }
+        for(String result : results)
+            System.out.println(result);
+    }
+
+    static void decode(String filenameIn) throws Exception {
+        byte[] input = Files.readAllBytes(new File(filenameIn).toPath());
+        //In an archive the data has its own section. In the older format it follows the dictionary in the same stream.
+        Archive archive = Archive.open(ByteBuffer.wrap(input));
+        byte[] dictionary = archive == null ? input : bytes(archive.section(Archive.DICTIONARY));
+        byte[] data = archive == null ? null : bytes(archive.section(Archive.DATA));
+        ByteBuffer tables = archive == null ? null : archive.section(Archive.DECODE_TABLES);
+
+        try(FieldReader fieldReader = new FieldReader(new File(filenameIn), true)) {
+            BlockDirectory blocks = fieldReader.getBlockDirectory();
+            if(blocks != null) {
+                checkBlocks(blocks, archive == null ? 0 : archive.sectionStart(Archive.DATA));
+                System.out.println("The stream decoders are not timed on archives in blocks, they can not skip the block headers.");
+            }
+            else
+                decodeStreams(dictionary, data, tables, fieldReader.getFieldIndex());
+            decodeAll(fieldReader);
+            if(fieldReader.getFieldIndex() != null || blocks != null)
+                decodeParallel(fieldReader);
+        }
+    }
+
+    //Decodes all the fields after each other, or only the first field when there is no field index.
+    private static void decodeStreams(byte[] dictionary, byte[] data, ByteBuffer tables, FieldIndex index) throws Exception {
+        int fields = index == null ? 1 : index.size();
+        long first = index == null || fields == 0 ? 0 : index.position(0);
+        long[] tree = new long[2];
+        long[] table = new long[2];
+        long[] multi = new long[2];
+        long[] lowMemory = new long[2];
+        long[] array = new long[2];
+        long[] loadTables = new long[2];
+        long size = 0;
+        BitStreamReader lengthReader = new BitStreamReader(new ByteArrayInputStream(dictionary));
+        Decoder lengthDecoder = new Decoder(lengthReader);
+        BitStreamReader fieldsReader = dataReader(lengthReader, data, first);
+        int length = 0;
+        for(int f = 0; f < fields; f++)
+            length += lengthDecoder.fieldLength(fieldsReader);
+        byte[] field = new byte[length];
+        for(int i = 0; i < ROUNDS; i++) {
+            CountingOutputStream output = new CountingOutputStream();
+            BufferedOutputStream buffered = new BufferedOutputStream(output, 1 << 20);
+            long start = System.nanoTime();
+            BitStreamReader reader = new BitStreamReader(new ByteArrayInputStream(dictionary));
+            TreeDecoder treeDecoder = new TreeDecoder(reader);
+            long loaded = System.nanoTime();
+            fieldsReader = dataReader(reader, data, first);
+            for(int f = 0; f < fields; f++)
+                treeDecoder.readField(fieldsReader, buffered);
+            buffered.flush();
+            long end = System.nanoTime();
+            record(tree, i, loaded - start, end - loaded);
+
+            output = new CountingOutputStream();
+            buffered = new BufferedOutputStream(output, 1 << 20);
+            start = System.nanoTime();
+            reader = new BitStreamReader(new ByteArrayInputStream(dictionary));
+            Decoder decoder = new Decoder(reader);
+            loaded = System.nanoTime();
+            readFields(decoder, dataReader(reader, data, first), fields, buffered);
+            buffered.flush();
+            end = System.nanoTime();
+            record(table, i, loaded - start, end - loaded);
+
+            output = new CountingOutputStream();
+            buffered = new BufferedOutputStream(output, 1 << 20);
+            start = System.nanoTime();
+            reader = new BitStreamReader(new ByteArrayInputStream(dictionary));
+            decoder = new Decoder(reader, true);
+            loaded = System.nanoTime();
+            readFields(decoder, dataReader(reader, data, first), fields, buffered);
+            buffered.flush();
+            end = System.nanoTime();
+            record(multi, i, loaded - start, end - loaded);
+
+            output = new CountingOutputStream();
+            buffered = new BufferedOutputStream(output, 1 << 20);
+            start = System.nanoTime();
+            reader = new BitStreamReader(new ByteArrayInputStream(dictionary));
+            decoder = new Decoder(reader, LOW_MEMORY_CACHE);
+            loaded = System.nanoTime();
+            readFields(decoder, dataReader(reader, data, first), fields, buffered);
+            buffered.flush();
+            end = System.nanoTime();
+            record(lowMemory, i, loaded - start, end - loaded);
+
+            start = System.nanoTime();
+            reader = new BitStreamReader(new ByteArrayInputStream(dictionary));
+            decoder = new Decoder(reader);
+            loaded = System.nanoTime();
+            fieldsReader = dataReader(reader, data, first);
+            int offset = 0;
+            for(int f = 0; f < fields; f++)
+                offset += decoder.readField(fieldsReader, field, offset);
+            end = System.nanoTime();
+            record(array, i, loaded - start, end - loaded);
+            size = output.count;
+
+            if(tables != null) {
+                output = new CountingOutputStream();
+                buffered = new BufferedOutputStream(output, 1 << 20);
+                start = System.nanoTime();
+                decoder = Decoder.readTables(tables, false);
+                loaded = System.nanoTime();
+                readFields(decoder, dataReader(null, data, first), fields, buffered);
+                buffered.flush();
+                end = System.nanoTime();
+                record(loadTables, i, loaded - start, end - loaded);
+            }
+        }
+
+        System.out.println("Decoded size:\t\t" + size + " bytes in " + fields + (fields == 1 ? " field" : " fields"));
+        print("TreeDecoder", tree, size);
+        print("Decoder", table, size);
+        print("Decoder multi", multi, size);
+        print("Decoder low mem", lowMemory, size);
+        print("Decoder byte[]", array, size);
+        if(tables != null)
+            print("Decoder tables", loadTables, size);
+    }
+
+    private static void readFields(Decoder decoder, BitStreamReader reader, int fields, OutputStream output) throws Exception {
+        for(int f = 0; f < fields; f++)
+            decoder.readField(reader, output);
+    }
+
+    //FieldReader.readAll reads all the fields with one reader, skipping the block headers. The dictionary is loaded once
+    //before, so only the decoding is timed.
+    private static void decodeAll(FieldReader fieldReader) throws Exception {
+        fieldReader.getDecoder();
+        long[] nanos = new long[2];
+        long size = 0;
+        for (int i = 0; i < ROUNDS; i++) {
+            CountingOutputStream output = new CountingOutputStream();
+            long start = System.nanoTime();
+            fieldReader.readAll(output);
+            record(nanos, i, 0, System.nanoTime() - start);
+            size = output.count;
+        }
+        System.out.println("Read all size:\t\t" + size + " bytes");
+        print("FieldReader all", nanos, size);
+    }
+
+    //Every block must start at a multiple of the block size in the file, so reading a block touches one page when the
+    //block size is a page. Archives that are written before the data section was aligned fail this check.
+    private static void checkBlocks(BlockDirectory blocks, long dataOffset)
+    {
+        long blockBits = blocks.blockSize() * 8L;
+        int misaligned = 0;
+        for(int block = 0; block < blocks.size(); block++)
+            if(((dataOffset << 3) + blocks.bitPosition(block)) % blockBits != 0)
+                misaligned++;
+        System.out.println("Blocks aligned in file:\t" + (blocks.size() - misaligned) + " of " + blocks.size());
+    }
+
+    private static void decodeParallel(FieldReader fieldReader) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        for(int threads = 1; threads <= cores; threads = threads < cores ? Math.min(threads * 2, cores) : cores + 1) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            long[] nanos = new long[2];
+            long size = 0;
+            try {
+                for (int i = 0; i < ROUNDS; i++) {
+                    CountingOutputStream output = new CountingOutputStream();
+                    long start = System.nanoTime();
+                    ParallelDecoder.decode(fieldReader, output, pool);
+                    record(nanos, i, 0, System.nanoTime() - start);
+                    size = output.count;
+                }
+            } finally {
+                pool.shutdown();
+            }
+            print("Parallel " + threads, nanos, size);
+        }
+    }
+
+    //Returns a new reader on the data section of an archive, or the reader after the dictionary in the older format.
+    //The reader is moved to the first field, which is at the start of the data in the files that Main writes.
+    private static BitStreamReader dataReader(BitStreamReader dictionaryReader, byte[] data, long first) throws Exception {
+        BitStreamReader result = data == null ? dictionaryReader : new BitStreamReader(new ByteArrayInputStream(data));
+        for(long skip = first; skip > 0; skip -= 32)
+            result.nextBits((int)Math.min(32, skip));
+        return result;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer)
+    {
+        byte[] result = new byte[buffer.remaining()];
+        buffer.duplicate().get(result);
+        return result;
+    }
+
+    private static void record(long[] nanos, int round, long load, long decode)
+    {
+        if(round == 0 || load < nanos[0])
+            nanos[0] = load;
+        if(round == 0 || decode < nanos[1])
+            nanos[1] = decode;
+    }
+
+    private static void print(String name, long[] nanos, long size)
+    {
+        System.out.println(String.format(Locale.ROOT, "%-16s load %8.2f ms, decode %8.2f ms, %8.1f MB/s",
+                name, nanos[0] / 1e6, nanos[1] / 1e6, size / (nanos[1] / 1e9) / 1e6));
+    }
+
+    private static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
@@ -5,21 +5,26 @@ Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.
 
 TODO:
 - Improve decoding. Its okay but not high performance.
-- There will be a problem decoding when the endOfLine symbols are included into other symbols.
-- Recreate the option to compress more than one field.
-- Create an encoder that can work with very big files that do not fit into RAM.
 - Create an encoder that can do recursive looking for the optimal encoding.
  */
 
-import decoders.Decoder;
+import decoders.Archive;
+import decoders.FieldReader;
+import decoders.ParallelDecoder;
+import encoders.ArchiveWriter;
 import encoders.Encoder;
-import io.BitStreamReader;
-import io.BitStreamWriter;
+import encoders.FieldIndexWriter;
+import encoders.StreamEncoder;
+import io.AsyncOutputStream;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Arrays;
 import java.util.Locale;
 
 public class Main {
@@ -27,29 +32,60 @@ public class Main {
     private static void printHelp() {
         System.out.println("Usage for a single file: -e | -d [source file] [destination file]");
         System.out.println("-e for encode. -d for decode.");
+        System.out.println("Encoding accepts an optional maximum Huffman code length: -e [source file] [destination file] [bits] [batch]");
+        System.out.println("With a batch size up to that many pairs are merged at once. This is faster but compresses a little less.");
+        System.out.println("Usage for encoding with the parse that uses the fewest bits: -o [source file] [destination file] [bits]");
+        System.out.println("Usage for encoding every line as a separate field: -l [source file] [destination file] [bits] [block size]");
+        System.out.println("With a block size the fields are stored in blocks of that many bytes.");
+        System.out.println("Usage for encoding every line as a field with decode tables, that open faster: -p [source file] [destination file] [bits] [block size]");
+        System.out.println("Archives with more than one field are decoded using all cores.");
+        System.out.println("Usage for encoding a file that does not fit in memory: -s [source file] [destination file] [memory MB] [bits]");
         System.out.println("Usage for encoding a directory: -f [source directory]");
+        System.out.println("Usage for timing the decoders: -b [encoded file]");
+        System.out.println("Usage for timing the encoder: -t [source file]");
     }
 
     private static void encode(String filenameIn, String filenameOut) {
+        encode(filenameIn, filenameOut, 0, false, 0, 1, false, false);
+    }
+
+    private static void encode(String filenameIn, String filenameOut, int maxCodeLength, boolean fieldPerLine, int blockSize, int batchSize, boolean optimal, boolean decodeTables) {
         File file = new File(filenameIn);
         if (!file.exists()) {
             System.out.println("The source file is not found.");
             return;
         }
         Instant start = Instant.now();
+        OutputStream output = null;
         try {
             System.out.print("Reading file: " + file.toPath());
             byte[] data = Files.readAllBytes(file.toPath());
             System.out.println(" done.");
-            FileOutputStream fos = new FileOutputStream(filenameOut);
+            output = openOutput(filenameOut);
+            ArchiveWriter archive = new ArchiveWriter(output);
+            ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+            //The blocks are aligned from the start of the data section.
+            if(blockSize > 0)
+                archive.startSection(Archive.DATA, blockSize);
+            else
+                archive.startSection(Archive.DATA);
 
             System.out.print("Find symbols...");
-            Encoder.encode(new byte[][]{data}, fos, fos);
+            byte[][] fields = fieldPerLine ? splitLines(data) : new byte[][]{data};
+            long[] fieldPositions;
+            if(blockSize > 0)
+                fieldPositions = Encoder.encodeBlocks(fields, dictionary, archive, maxCodeLength, blockSize);
+            else if(optimal)
+                fieldPositions = Encoder.encodeOptimal(fields, dictionary, archive, maxCodeLength);
+            else
+                fieldPositions = Encoder.encodeBatched(fields, dictionary, archive, maxCodeLength, batchSize);
 
-            fos.close();
+            //The blocks have their own directory.
+            writeSections(archive, dictionary.toByteArray(), blockSize > 0 ? null : fieldPositions, decodeTables);
             System.out.println("Total size:\t\t\t" + (new File(filenameOut).length()) + " bytes");
         } catch (Exception e) {
             e.printStackTrace();
+            deleteOutput(output, filenameOut);
         }
 
         double seconds = Duration.between(start, Instant.now()).toMillis() / 1000.0;
@@ -57,6 +93,91 @@ public class Main {
 
     }
 
+    private static void encodeStream(String filenameIn, String filenameOut, long memoryBudget, int maxCodeLength) {
+        File file = new File(filenameIn);
+        if (!file.exists()) {
+            System.out.println("The source file is not found.");
+            return;
+        }
+        Instant start = Instant.now();
+        OutputStream output = null;
+        try {
+            System.out.print("Find symbols...");
+            output = openOutput(filenameOut);
+            ArchiveWriter archive = new ArchiveWriter(output);
+            ByteArrayOutputStream dictionary = new ByteArrayOutputStream();
+            archive.startSection(Archive.DATA);
+            long[] fieldPositions = StreamEncoder.encode(file, dictionary, archive, memoryBudget, maxCodeLength);
+            writeSections(archive, dictionary.toByteArray(), fieldPositions, false);
+            System.out.println("Total size:\t\t\t" + (new File(filenameOut).length()) + " bytes");
+        } catch (Exception e) {
+            e.printStackTrace();
+            deleteOutput(output, filenameOut);
+        }
+
+        double seconds = Duration.between(start, Instant.now()).toMillis() / 1000.0;
+        System.out.println("Encoding done in:\t" + seconds + " seconds");
+    }
+
+    //The sections after the data. They are small, so a reader that opens the archive finds them close to the section table.
+    private static void writeSections(ArchiveWriter archive, byte[] dictionary, long[] fieldPositions, boolean decodeTables) throws Exception {
+        archive.writeSection(Archive.DICTIONARY, dictionary);
+        if(decodeTables)
+            archive.writeDecodeTables(dictionary);
+        if(fieldPositions != null) {
+            archive.startSection(Archive.FIELD_INDEX);
+            FieldIndexWriter.write(fieldPositions, archive);
+        }
+        archive.close();
+    }
+
+    //After a failed encoding the output is closed, so its thread stops, and the part that is written is removed.
+    //The archive is not closed, that would write a section table for data that is not complete.
+    private static void deleteOutput(OutputStream output, String filename) {
+        if(output == null)
+            return;
+        try {
+            output.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        new File(filename).delete();
+    }
+
+    //The maximum code length argument, 0 when it is not given. Returns -1 when it is not valid, before any output is
+    //opened. Codes are at most 63 bits, see CanonicalHuffmanTree.
+    private static int maxCodeLength(String[] args, int index) {
+        int result = args.length > index ? Integer.parseInt(args[index]) : 0;
+        if(result < 0 || result > 63) {
+            System.out.println("The maximum code length must be between 1 and 63 bits, or 0 for no limit.");
+            return -1;
+        }
+        return result;
+    }
+
+    //The output is written by its own thread, while the next output is made.
+    private static OutputStream openOutput(String filename) throws IOException {
+        return new AsyncOutputStream(FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    //Every field keeps its line ending, so the fields written after each other are the original data again.
+    private static byte[][] splitLines(byte[] data) {
+        int count = 0;
+        for(int i = 0; i < data.length; i++)
+            if(data[i] == '\n' || i == data.length - 1)
+                count++;
+
+        byte[][] result = new byte[count][];
+        int start = 0;
+        count = 0;
+        for(int i = 0; i < data.length; i++)
+            if(data[i] == '\n' || i == data.length - 1) {
+                result[count++] = Arrays.copyOfRange(data, start, i + 1);
+                start = i + 1;
+            }
+        return result;
+    }
+
     private static void encodeFolder(String directoryIn) {
         File file = new File(directoryIn);
         if (!file.isDirectory()) {
@@ -81,14 +202,15 @@ public class Main {
         }
         Instant start = Instant.now();
         try {
-            FileInputStream fis = new FileInputStream(filenameIn);
-            BitStreamReader reader = new BitStreamReader(fis);
-            FileOutputStream writer = new FileOutputStream(filenameOut, false);
-            BufferedOutputStream bufferedWriter = new BufferedOutputStream(writer, 1 << 20);
-            Decoder decoder = new Decoder(reader);
-            decoder.readField(reader, bufferedWriter);
+            FieldReader reader = new FieldReader(file, true);
+            OutputStream bufferedWriter = openOutput(filenameOut);
+            //Files over 2 GB are not memory mapped, their data is streamed from the file by one reader.
+            if(file.length() <= Integer.MAX_VALUE && (reader.getFieldIndex() != null || reader.getBlockDirectory() != null))
+                ParallelDecoder.decode(reader, bufferedWriter);
+            else
+                reader.readAll(bufferedWriter);
             bufferedWriter.close();
-            fis.close();
+            reader.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -111,7 +233,49 @@ public class Main {
                     printHelp();
                     break;
                 }
-                encode(args[1], args[2]);
+                int maxCodeLength = maxCodeLength(args, 3);
+                if(maxCodeLength < 0)
+                    break;
+                encode(args[1], args[2], maxCodeLength, false, 0, args.length > 4 ? Integer.parseInt(args[4]) : 1, false, false);
+                break;
+            }
+            case "-o": //Encode with the parse that uses the fewest bits
+            {
+                if(args.length < 3)
+                {
+                    printHelp();
+                    break;
+                }
+                int maxCodeLength = maxCodeLength(args, 3);
+                if(maxCodeLength < 0)
+                    break;
+                encode(args[1], args[2], maxCodeLength, false, 0, 1, true, false);
+                break;
+            }
+            case "-l": //Encode every line as a field
+            {
+                if(args.length < 3)
+                {
+                    printHelp();
+                    break;
+                }
+                int maxCodeLength = maxCodeLength(args, 3);
+                if(maxCodeLength < 0)
+                    break;
+                encode(args[1], args[2], maxCodeLength, true, args.length > 4 ? Integer.parseInt(args[4]) : 0, 1, false, false);
+                break;
+            }
+            case "-p": //Encode every line as a field, with decode tables
+            {
+                if(args.length < 3)
+                {
+                    printHelp();
+                    break;
+                }
+                int maxCodeLength = maxCodeLength(args, 3);
+                if(maxCodeLength < 0)
+                    break;
+                encode(args[1], args[2], maxCodeLength, true, args.length > 4 ? Integer.parseInt(args[4]) : 0, 1, false, true);
                 break;
             }
             case "-d": //Decode
@@ -124,6 +288,19 @@ public class Main {
                 decode(args[1], args[2]);
                 break;
             }
+            case "-s": //Encode a file that does not fit in memory
+            {
+                if(args.length < 4)
+                {
+                    printHelp();
+                    break;
+                }
+                int maxCodeLength = maxCodeLength(args, 4);
+                if(maxCodeLength < 0)
+                    break;
+                encodeStream(args[1], args[2], Long.parseLong(args[3]) << 20, maxCodeLength);
+                break;
+            }
             case "-f": //Encode directory
             {
                 if(args.length < 2)
@@ -134,6 +311,34 @@ public class Main {
                 encodeFolder(args[1]);
                 break;
             }
+            case "-b": //Benchmark
+            {
+                if(args.length < 2)
+                {
+                    printHelp();
+                    break;
+                }
+                try {
+                    Benchmark.decode(args[1]);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                break;
+            }
+            case "-t": //Benchmark the encoder
+            {
+                if(args.length < 2)
+                {
+                    printHelp();
+                    break;
+                }
+                try {
+                    Benchmark.encode(args[1]);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                }
+                break;
+            }
 
             default:
             {
@@ -0,0 +1,155 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Reads the sections of an archive that encoders.ArchiveWriter writes.
+Layout, all numbers are 8 byte big endian:
+- header: magic number, version
+- the sections, in the order they are written
+- section table: the type, the start and the length in bytes of every section
+- trailer: the number of sections, magic number
+The table is at the end, because the length of a section is only known after it is written.
+Opening only reads the header and the table. A section is a slice of the buffer, or it is mapped from the file when it
+is used, so nothing else is touched until a section is needed. The positions are longs, so an archive can be bigger
+than 2 GB. Such a data section can not be mapped as a whole, it can be read at sectionStart with io.FileChannelBitReader.
+Unknown section types are skipped, so newer writers can add sections.
+Files that do not start with the magic number are in the older format: the dictionary directly followed by the data,
+with an optional field index or block directory at the end. FieldReader reads both.
+ */
+package decoders;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class Archive {
+    public static final long MAGIC = 0x4C4249545F415243L; //"LBIT_ARC"
+    public static final int VERSION = 1;
+
+    //The Huffman tree, as written by Encoder.encode or Dictionary.write.
+    public static final int DICTIONARY = 1;
+    //The tables of a Decoder, to load it without building them from the dictionary. See Decoder.writeTables.
+    public static final int DECODE_TABLES = 2;
+    //The bit positions of the fields, see FieldIndex.
+    public static final int FIELD_INDEX = 3;
+    //The encoded fields. When they are stored in blocks, the block directory is at the end of this section.
+    public static final int DATA = 4;
+
+    private final ByteBuffer buffer;
+    private final FileChannel channel;
+    private final int version;
+    private final int[] types;
+    private final long[] starts;
+    private final long[] lengths;
+
+    private Archive(ByteBuffer buffer, FileChannel channel, int version, ByteBuffer table, int count)
+    {
+        this.buffer = buffer;
+        this.channel = channel;
+        this.version = version;
+        types = new int[count];
+        starts = new long[count];
+        lengths = new long[count];
+        for(int i = 0; i < count; i++)
+        {
+            types[i] = (int)table.getLong(24 * i);
+            starts[i] = table.getLong(24 * i + 8);
+            lengths[i] = table.getLong(24 * i + 16);
+        }
+    }
+
+    //Returns null when the buffer does not start with the magic number.
+    public static Archive open(ByteBuffer buffer) throws IOException {
+        return open(buffer, null, buffer.limit());
+    }
+
+    //Only reads the header and the section table of the file. Returns null when it does not start with the magic number.
+    //The channel must stay open while sections are mapped.
+    public static Archive open(FileChannel channel) throws IOException {
+        return open(null, channel, channel.size());
+    }
+
+    private static Archive open(ByteBuffer buffer, FileChannel channel, long end) throws IOException {
+        if(end < 16)
+            return null;
+        ByteBuffer header = read(buffer, channel, 0, 16);
+        if(header.getLong(0) != MAGIC)
+            return null;
+        long version = header.getLong(8);
+        if(version > VERSION)
+            throw new IOException("The archive has version " + version + ", only version " + VERSION + " and older can be read.");
+        if(end < 32 || read(buffer, channel, end - 8, 8).getLong(0) != MAGIC)
+            throw new IOException("The archive has no section table, it may not be complete.");
+        long count = read(buffer, channel, end - 16, 8).getLong(0);
+        if(count < 0 || count > (end - 32) / 24 || count > Integer.MAX_VALUE / 24)
+            throw new IOException("The section table is damaged.");
+        long tableStart = end - 16 - 24 * count;
+
+        Archive archive = new Archive(buffer, channel, (int)version, read(buffer, channel, tableStart, 24 * (int)count), (int)count);
+        for(int i = 0; i < count; i++)
+            if(archive.starts[i] < 16 || archive.starts[i] > tableStart || archive.lengths[i] < 0 || archive.lengths[i] > tableStart - archive.starts[i])
+                throw new IOException("Section " + i + " is outside of the archive.");
+        return archive;
+    }
+
+    //Reads length bytes at the position, from the buffer when there is one and otherwise from the channel.
+    private static ByteBuffer read(ByteBuffer buffer, FileChannel channel, long position, int length) throws IOException {
+        if(buffer != null) {
+            ByteBuffer result = buffer.duplicate();
+            result.position((int)position);
+            result.limit((int)position + length);
+            return result.slice();
+        }
+        ByteBuffer result = ByteBuffer.allocate(length);
+        while(result.hasRemaining())
+            if(channel.read(result, position + result.position()) < 0)
+                throw new IOException("The archive ends too soon.");
+        return result;
+    }
+
+    public int version()
+    {
+        return version;
+    }
+
+    public boolean hasSection(int type)
+    {
+        return find(type) >= 0;
+    }
+
+    //The position of the section in the file in bytes, or -1 when there is none.
+    public long sectionStart(int type)
+    {
+        int i = find(type);
+        return i < 0 ? -1 : starts[i];
+    }
+
+    //The length of the section in bytes, or -1 when there is none.
+    public long sectionLength(int type)
+    {
+        int i = find(type);
+        return i < 0 ? -1 : lengths[i];
+    }
+
+    //Returns the bytes of the first section of the type, starting at position 0, or null when there is none.
+    //When the archive is opened on a channel the section is memory mapped, which only works up to 2 GB.
+    public ByteBuffer section(int type) throws IOException {
+        int i = find(type);
+        if(i < 0)
+            return null;
+        if(lengths[i] > Integer.MAX_VALUE)
+            throw new IOException("Section " + i + " is larger than 2 GB and can not be mapped.");
+        if(buffer != null)
+            return read(buffer, null, starts[i], (int)lengths[i]);
+        return channel.map(FileChannel.MapMode.READ_ONLY, starts[i], lengths[i]);
+    }
+
+    private int find(int type)
+    {
+        for(int i = 0; i < types.length; i++)
+            if(types[i] == type)
+                return i;
+        return -1;
+    }
+}
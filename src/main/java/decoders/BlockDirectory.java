@@ -0,0 +1,87 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Reads the block directory that Encoder.encodeBlocks writes at the end of an archive.
+Every entry is the number of the first field in the block and the position of the block divided by the block size.
+The entries are read from the buffer when needed, so opening only reads the trailer.
+ */
+package decoders;
+
+import java.nio.ByteBuffer;
+
+public class BlockDirectory {
+    public static final long MAGIC = 0x4C4249545F424C4BL; //"LBIT_BLK"
+
+    private final ByteBuffer buffer;
+    private final int start;
+    private final int blockCount;
+    private final int fieldCount;
+    private final int blockSize;
+
+    private BlockDirectory(ByteBuffer buffer, int start, int blockCount, int fieldCount, int blockSize)
+    {
+        this.buffer = buffer;
+        this.start = start;
+        this.blockCount = blockCount;
+        this.fieldCount = fieldCount;
+        this.blockSize = blockSize;
+    }
+
+    //Returns null when the buffer does not end with a block directory.
+    public static BlockDirectory open(ByteBuffer buffer)
+    {
+        int end = buffer.limit();
+        if(end < 32 || buffer.getLong(end - 8) != MAGIC)
+            return null;
+        int size = (int)buffer.getLong(end - 16);
+        int blockSize = (int)buffer.getLong(end - 24);
+        int fieldCount = (int)buffer.getLong(end - 32);
+        return new BlockDirectory(buffer, end - 32 - size, size / 8, fieldCount, blockSize);
+    }
+
+    public int size()
+    {
+        return blockCount;
+    }
+
+    public int fieldCount()
+    {
+        return fieldCount;
+    }
+
+    public int blockSize()
+    {
+        return blockSize;
+    }
+
+    public int firstField(int block)
+    {
+        return block == blockCount ? fieldCount : buffer.getInt(start + 8 * block);
+    }
+
+    //The bit position of the block in the archive.
+    public long bitPosition(int block)
+    {
+        return (long)buffer.getInt(start + 8 * block + 4) * blockSize * 8;
+    }
+
+    //Returns the block that contains the field.
+    public int find(int field)
+    {
+        if(field < 0 || field >= fieldCount)
+            throw new IndexOutOfBoundsException("Field " + field + " does not exist. There are " + fieldCount + " fields.");
+        int low = 0;
+        int high = blockCount - 1;
+        while(low < high)
+        {
+            int middle = (low + high + 1) >>> 1;
+            if(firstField(middle) <= field)
+                low = middle;
+            else
+                high = middle - 1;
+        }
+        return low;
+    }
+}
@@ -3,200 +3,706 @@ Written by Wybren Kapenga
 
 Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
 
-Decoder & BitStreamReader can be used without the other classes to create a small decoder library.
+Decoder & the io.BitReader classes can be used without the other classes to create a small decoder library.
+
+The canonical Huffman tree is compiled into flat lookup tables. A table entry is one int:
+- the lowest 6 bits contain the number of bits to consume,
+- bit 6 tells if the entry is a link to a sub table,
+- the remaining bits contain the symbol or the offset of the sub table.
+A symbol is the canonical index of the leaf: all the leaves sorted by depth and by their order within that depth.
+The bytes of all the symbols are stored after each other in one array. Symbol i starts at offsets[i] and has dataLengths[i] bytes.
+
+In low memory mode only the bytes of the first symbols are stored, up to the given cache size. These have the shortest codes,
+so they are the symbols that are used most. The other symbols keep their two references and are expanded when they are written.
+A literal has -1 as its first reference and the byte as its second reference.
+
+In multi symbol mode a second table is indexed by the next 12 bits. An entry contains up to 4 complete symbols
+that fit in those bits, with their data concatenated so they can be written at once. A multi symbol entry is one int:
+- the lowest 4 bits contain the number of bits to consume, 0 when not even one symbol fits,
+- bit 4 tells if the last symbol ends the field,
+- the remaining bits contain the length of the data. The offset of the data is in multiOffsets.
  */
 package decoders;
 
+import io.BitReader;
 import io.BitStreamReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
 
 public class Decoder {
-    private DecodeNode root;
+    private static final int TABLE_BITS = 11;
+    private static final int SUB_TABLE_BITS = 13; //Codes up to 24 bits never need more than one sub table.
+    private static final int LENGTH_MASK = (1 << 6) - 1;
+    private static final int LINK = 1 << 6;
+    private static final int VALUE_SHIFT = 7;
+
+    private static final int MULTI_BITS = 12;
+    private static final int MULTI_SYMBOLS = 4;
+    private static final int MULTI_MAX_DATA = 64;
+    private static final int MULTI_BITS_MASK = (1 << 4) - 1;
+    private static final int MULTI_END_OF_LINE = 1 << 4;
+    private static final int MULTI_LENGTH_SHIFT = 5;
+
+    private int[] table;
+    private int tableBits;
+    private int tableLength;
 
-    public Decoder(BitStreamReader inputStream) throws Exception {
-        root = readTree(inputStream);
+    private byte[] data;
+    private int[] offsets;
+    private int[] dataLengths;
+    private boolean[] hasEndOfLine;
+    private int storedSymbols;
+    private int[] referenceA;
+    private int[] referenceB;
+
+    private int[] multiTable;
+    private int[] multiOffsets;
+    private byte[] multiData;
+
+    public Decoder(BitReader inputStream) throws Exception {
+        this(inputStream, false);
     }
 
     public Decoder(InputStream inputStream) throws Exception {
-        root = readTree(inputStream);
+        this(new BitStreamReader(inputStream), false);
+    }
+
+    public Decoder(BitReader inputStream, boolean multiSymbol) throws Exception {
+        readTree(inputStream, -1);
+        if(multiSymbol)
+            buildMultiTable();
+    }
+
+    //Low memory mode. At most cacheSize bytes are used to store the bytes of the most used symbols.
+    public Decoder(BitReader inputStream, int cacheSize) throws Exception {
+        readTree(inputStream, cacheSize);
+    }
+
+    private Decoder()
+    {
+    }
+
+    //Loads the tables that writeTables wrote. This only copies arrays, the dictionary is not read.
+    public static Decoder readTables(ByteBuffer tables, boolean multiSymbol)
+    {
+        ByteBuffer buffer = tables.duplicate().order(ByteOrder.BIG_ENDIAN);
+        Decoder result = new Decoder();
+        result.tableBits = buffer.getInt();
+        result.tableLength = buffer.getInt();
+        int symbolCount = buffer.getInt();
+        int dataLength = buffer.getInt();
+        result.table = new int[result.tableLength];
+        result.offsets = new int[symbolCount];
+        result.dataLengths = new int[symbolCount];
+        long[] endOfLine = new long[(symbolCount + 63) >>> 6];
+        result.data = new byte[dataLength];
+        buffer.asIntBuffer().get(result.table).get(result.offsets).get(result.dataLengths);
+        buffer.position(buffer.position() + 4 * (result.tableLength + 2 * symbolCount));
+        buffer.asLongBuffer().get(endOfLine);
+        buffer.position(buffer.position() + 8 * endOfLine.length);
+        buffer.get(result.data);
+
+        result.hasEndOfLine = new boolean[symbolCount];
+        for(int i = 0; i < symbolCount; i++)
+            result.hasEndOfLine[i] = (endOfLine[i >>> 6] & (1L << i)) != 0;
+        result.storedSymbols = symbolCount;
+        if(multiSymbol)
+            result.buildMultiTable();
+        return result;
+    }
+
+    //Writes the lookup table and the bytes of the symbols, so readTables can load them without building them again.
+    //Layout, big endian: table bits, table length, symbol count, data length, the table, the offsets and the lengths
+    //of the symbols, the symbols that end a field as a bit array of longs, the data.
+    //Only a Decoder that stores all the symbols can be written, not one in low memory mode.
+    public void writeTables(OutputStream output) throws IOException {
+        int symbolCount = hasEndOfLine.length;
+        if(storedSymbols < symbolCount)
+            throw new IllegalStateException("A Decoder in low memory mode can not write its tables.");
+        long[] endOfLine = new long[(symbolCount + 63) >>> 6];
+        for(int i = 0; i < symbolCount; i++)
+            if(hasEndOfLine[i])
+                endOfLine[i >>> 6] |= 1L << i;
+
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 4 * (tableLength + 2 * symbolCount) + 8 * endOfLine.length);
+        buffer.putInt(tableBits).putInt(tableLength).putInt(symbolCount).putInt(data.length);
+        buffer.asIntBuffer().put(table, 0, tableLength).put(offsets).put(dataLengths);
+        buffer.position(buffer.position() + 4 * (tableLength + 2 * symbolCount));
+        buffer.asLongBuffer().put(endOfLine);
+        output.write(buffer.array());
+        output.write(data);
+    }
+
+    public void readField(BitReader reader, OutputStream output) throws Exception {
+        if(multiTable != null)
+        {
+            readFieldMulti(reader, output);
+            return;
+        }
+        if(storedSymbols < hasEndOfLine.length)
+        {
+            readFieldExpanding(reader, output);
+            return;
+        }
+        while(true)
+        {
+            int symbol = nextSymbol(reader);
+            output.write(data, offsets[symbol], dataLengths[symbol]);
+            if(hasEndOfLine[symbol])
+                break;
+        }
     }
 
-    public void readField(BitStreamReader reader, OutputStream output) throws Exception {
-        DecodeNode node = root.get(reader);
+    private void readFieldExpanding(BitReader reader, OutputStream output) throws Exception {
+        Expansion expansion = new Expansion();
         while(true)
         {
-            output.write(node.data, 0, node.data.length);
-            if(node.hasEndOfLine)
+            int symbol = nextSymbol(reader);
+            if(symbol < storedSymbols)
+                output.write(data, offsets[symbol], dataLengths[symbol]);
+            else {
+                expand(symbol, expansion);
+                output.write(expansion.buffer, 0, expansion.length);
+            }
+            if(hasEndOfLine[symbol])
                 break;
-            node = root.get(reader);
         }
     }
 
-    private DecodeNode readTree(InputStream reader) throws Exception {
-        return readTree(new BitStreamReader(reader));
+    //Reads a field into the array, starting at offset. Returns the number of bytes written.
+    //Throws an IndexOutOfBoundsException when the field does not fit; use fieldLength to find the size first.
+    public int readField(BitReader reader, byte[] output, int offset) throws Exception {
+        return readField(reader, output, offset, output.length);
     }
 
-    private DecodeNode readTree(BitStreamReader reader) throws Exception {
+    //Reads a field into the buffer at its position and moves the position past the field. Returns the number of bytes written.
+    //Throws an IndexOutOfBoundsException when the field does not fit between the position and the limit. The position
+    //is then not moved, for heap and direct buffers alike, but the bytes after it may have changed.
+    public int readField(BitReader reader, ByteBuffer output) throws Exception {
+        int length;
+        if(output.hasArray())
+            length = readField(reader, output.array(), output.arrayOffset() + output.position(), output.arrayOffset() + output.limit());
+        else
+        {
+            Expansion expansion = new Expansion();
+            int start = output.position();
+            while(true)
+            {
+                int symbol = nextSymbol(reader);
+                byte[] source = data;
+                int sourceOffset;
+                if(symbol < storedSymbols) {
+                    sourceOffset = offsets[symbol];
+                    length = dataLengths[symbol];
+                }
+                else {
+                    expand(symbol, expansion);
+                    source = expansion.buffer;
+                    sourceOffset = 0;
+                    length = expansion.length;
+                }
+                if(length > output.remaining()) {
+                    output.position(start);
+                    throw new IndexOutOfBoundsException("The field does not fit in the output.");
+                }
+                output.put(source, sourceOffset, length);
+                if(hasEndOfLine[symbol])
+                    break;
+            }
+            return output.position() - start;
+        }
+        output.position(output.position() + length);
+        return length;
+    }
+
+    private int readField(BitReader reader, byte[] output, int offset, int end) throws Exception {
+        Expansion expansion = null;
+        int position = offset;
+        while(true)
+        {
+            if(multiTable != null)
+            {
+                int index = reader.peekBits(MULTI_BITS);
+                int entry = multiTable[index];
+                int bits = entry & MULTI_BITS_MASK;
+                if(bits > 0)
+                {
+                    int length = entry >>> MULTI_LENGTH_SHIFT;
+                    if(position + length > end)
+                        throw new IndexOutOfBoundsException("The field does not fit in the output.");
+                    reader.skipBits(bits);
+                    System.arraycopy(multiData, multiOffsets[index], output, position, length);
+                    position += length;
+                    if((entry & MULTI_END_OF_LINE) != 0)
+                        break;
+                    continue;
+                }
+            }
+            int symbol = nextSymbol(reader);
+            byte[] source = data;
+            int sourceOffset;
+            int length;
+            if(symbol < storedSymbols) {
+                sourceOffset = offsets[symbol];
+                length = dataLengths[symbol];
+            }
+            else {
+                if(expansion == null)
+                    expansion = new Expansion();
+                expand(symbol, expansion);
+                source = expansion.buffer;
+                sourceOffset = 0;
+                length = expansion.length;
+            }
+            if(position + length > end)
+                throw new IndexOutOfBoundsException("The field does not fit in the output.");
+            System.arraycopy(source, sourceOffset, output, position, length);
+            position += length;
+            if(hasEndOfLine[symbol])
+                break;
+        }
+        return position - offset;
+    }
+
+    //Reads a field without writing it anywhere and returns the number of bytes it contains.
+    public int fieldLength(BitReader reader) throws Exception {
+        Expansion expansion = null;
+        long length = 0;
+        while(true)
+        {
+            int symbol = nextSymbol(reader);
+            if(symbol < storedSymbols)
+                length += dataLengths[symbol];
+            else {
+                if(expansion == null)
+                    expansion = new Expansion();
+                expand(symbol, expansion);
+                length += expansion.length;
+            }
+            if(length > Integer.MAX_VALUE)
+                throw new IOException("The field is too long to fit in an array.");
+            if(hasEndOfLine[symbol])
+                return (int)length;
+        }
+    }
+
+    //Reads a field without writing it anywhere.
+    public void skipField(BitReader reader) throws Exception {
+        while(!hasEndOfLine[nextSymbol(reader)]);
+    }
+
+    private void readFieldMulti(BitReader reader, OutputStream output) throws Exception {
+        while(true)
+        {
+            int index = reader.peekBits(MULTI_BITS);
+            int entry = multiTable[index];
+            int bits = entry & MULTI_BITS_MASK;
+            if(bits > 0)
+            {
+                reader.skipBits(bits);
+                output.write(multiData, multiOffsets[index], entry >>> MULTI_LENGTH_SHIFT);
+                if((entry & MULTI_END_OF_LINE) != 0)
+                    break;
+            }
+            else //The code is longer than the multi symbol table.
+            {
+                int symbol = nextSymbol(reader);
+                output.write(data, offsets[symbol], dataLengths[symbol]);
+                if(hasEndOfLine[symbol])
+                    break;
+            }
+        }
+    }
+
+    private int nextSymbol(BitReader reader) throws Exception {
+        int bits = tableBits;
+        int entry = table[reader.peekBits(bits)];
+        while((entry & LINK) != 0)
+        {
+            reader.skipBits(bits);
+            bits = entry & LENGTH_MASK;
+            entry = table[(entry >>> VALUE_SHIFT) + reader.peekBits(bits)];
+        }
+        reader.skipBits(entry & LENGTH_MASK);
+        return entry >>> VALUE_SHIFT;
+    }
+
+    //The number of bits of a field that is only the symbol with the code of all zero bits, or 0 when that symbol does not
+    //end a field. Such fields can not be told apart from the zeros that pad the last byte of the data.
+    int zeroFieldBits()
+    {
+        int bits = tableBits;
+        int skipped = 0;
+        int entry = table[0];
+        while((entry & LINK) != 0)
+        {
+            skipped += bits;
+            bits = entry & LENGTH_MASK;
+            entry = table[entry >>> VALUE_SHIFT];
+        }
+        return hasEndOfLine[entry >>> VALUE_SHIFT] ? skipped + (entry & LENGTH_MASK) : 0;
+    }
+
+    //With a negative cacheSize the bytes of all symbols are stored.
+    private void readTree(BitReader reader, int cacheSize) throws Exception {
         int bitSize = reader.nextBits(5);
         int lastOccurrence = reader.nextBits(6);
         int firstBitSize = bitSize(lastOccurrence-1);
         int firstOccurrence = reader.nextBits(firstBitSize);
 
         int[] depths = new int[lastOccurrence+1];
+        int symbolCount = 0;
+        for(int i = firstOccurrence; i <= lastOccurrence; i++) {
+            depths[i] = reader.nextBits(bitSize);
+            symbolCount += depths[i];
+        }
+
+        //Give every symbol its code length and canonical code.
+        int[] lengths = new int[symbolCount];
+        long[] codes = new long[symbolCount];
+        long code = 0;
+        int symbol = 0;
         for(int i = firstOccurrence; i <= lastOccurrence; i++)
-            depths[i] =  reader.nextBits(bitSize);
+        {
+            for(int x = 0; x < depths[i]; x++) {
+                lengths[symbol] = i;
+                codes[symbol++] = code++;
+            }
+            code <<= 1;
+        }
 
-        DecodeNode[][] nodes = new DecodeNode[lastOccurrence+1][];
-        int[] leaveCount = new int[depths.length];
+        table = new int[1 << 12];
+        tableLength = 0;
+        tableBits = subTableBits(lengths, symbolCount, 0);
+        buildTable(lengths, codes, 0, symbolCount, 0, tableBits);
 
-        DecodeNode root = new DecodeNode(leaveCount, depths, lastOccurrence, nodes, 0);
-        root.setLeaves(0, new DecodeNode[0], new int[1], 0);
+        hasEndOfLine = new boolean[symbolCount];
+        referenceA = new int[symbolCount];
+        referenceB = new int[symbolCount];
 
         int maxLiteralCount = 257;
-        int[] literalCounts = new int[lastOccurrence+1];
+        symbol = 0;
         for(int i = firstOccurrence; i <= lastOccurrence; i++)
         {
             if(depths[i] > 0) {
                 int literalCount = reader.nextBits(Math.min(bitSize(maxLiteralCount), bitSize(depths[i])));
-                literalCounts[i] = literalCount;
                 maxLiteralCount-=literalCount;
-                for (int x = 0; x < literalCount; x++) {
-
-                        byte literalByte = (byte)reader.nextBits(8);
-                        if(literalByte == 0)
-                        {
-                            if(reader.nextBit() == 1)
-                                nodes[i][x].data = new byte[]{literalByte};
-                            else
-                            {
-                                nodes[i][x].data = new byte[0];
-                                nodes[i][x].hasEndOfLine = true;
-                            }
-                        }
-                        else
-                            nodes[i][x].data = new byte[]{literalByte};
+                for (int x = 0; x < literalCount; x++, symbol++) {
+                    referenceA[symbol] = -1;
+                    referenceB[symbol] = reader.nextBits(8);
+                    if(referenceB[symbol] == 0 && reader.nextBit() == 0)
+                        hasEndOfLine[symbol] = true;
                 }
-                for (int x = literalCount; x < depths[i]; x++) {
-                    nodes[i][x].toResolveA = root.get(reader);
-                    nodes[i][x].toResolveB = root.get(reader);
+                for (int x = literalCount; x < depths[i]; x++, symbol++) {
+                    referenceA[symbol] = nextSymbol(reader);
+                    referenceB[symbol] = nextSymbol(reader);
                 }
             }
         }
 
-        for(int i = firstOccurrence; i <= lastOccurrence; i++)
-            for(int x = literalCounts[i]; x < depths[i]; x++)
-                nodes[i][x].resolve();
-        return root;
+        if(cacheSize < 0) {
+            resolve();
+            referenceA = null;
+            referenceB = null;
+        }
+        else
+            cache(cacheSize);
     }
 
-    private static int reverse(int i, int n)
+    //Stores the bytes of the symbols in order, until the next one does not fit in cacheSize bytes anymore.
+    //Every stored symbol also costs 8 bytes for its offset and length.
+    private void cache(int cacheSize)
     {
-        i = (i & 0x55555555) <<  1 | (i & 0xaaaaaaaa) >>>  1;
-        i = (i & 0x33333333) <<  2 | (i & 0xcccccccc) >>>  2;
-        i = (i & 0x0f0f0f0f) <<  4 | (i & 0xf0f0f0f0) >>>  4;
-        i = (i & 0x00ff00ff) <<  8 | (i & 0xff00ff00) >>>  8;
-        return (i << 16 | i >>> 16) >>> (32 - n);
+        int symbolCount = hasEndOfLine.length;
+        //A symbol ends the field when its last reference does.
+        boolean[] known = new boolean[symbolCount];
+        for(int i = 0; i < symbolCount; i++)
+        {
+            int last = i;
+            while(referenceA[last] >= 0 && !known[last])
+                last = referenceB[last];
+            for(int symbol = i; symbol != last && !known[symbol]; symbol = referenceB[symbol]) {
+                hasEndOfLine[symbol] = hasEndOfLine[last];
+                known[symbol] = true;
+            }
+        }
+
+        Expansion expansion = new Expansion();
+        data = new byte[Math.min(cacheSize, 1 << 16)];
+        offsets = new int[Math.min(symbolCount, 1 << 10)];
+        dataLengths = new int[offsets.length];
+        int dataLength = 0;
+        long used = 0;
+        storedSymbols = 0;
+        while(storedSymbols < symbolCount)
+        {
+            expand(storedSymbols, expansion);
+            used += expansion.length + 8;
+            if(used > cacheSize)
+                break;
+            if(dataLength + expansion.length > data.length)
+                data = Arrays.copyOf(data, (int)Math.min(cacheSize, Math.max(2L * data.length, dataLength + expansion.length)));
+            if(storedSymbols == offsets.length) {
+                offsets = Arrays.copyOf(offsets, Math.min(symbolCount, 2 * offsets.length));
+                dataLengths = Arrays.copyOf(dataLengths, offsets.length);
+            }
+            System.arraycopy(expansion.buffer, 0, data, dataLength, expansion.length);
+            offsets[storedSymbols] = dataLength;
+            dataLengths[storedSymbols++] = expansion.length;
+            dataLength += expansion.length;
+        }
+        data = Arrays.copyOf(data, dataLength);
+        offsets = Arrays.copyOf(offsets, storedSymbols);
+        dataLengths = Arrays.copyOf(dataLengths, storedSymbols);
     }
 
-    public static int bitSize(long i)
+    //Writes the bytes of a symbol in the expansion buffer. Stored symbols are copied, the others are followed to their literals.
+    private void expand(int symbol, Expansion expansion)
     {
-        int result = 0;
-        while(i > 0)
+        byte[] buffer = expansion.buffer;
+        int[] stack = expansion.stack;
+        int length = 0;
+        int stackLength = 0;
+        stack[stackLength++] = symbol;
+        while(stackLength > 0)
         {
-            result++;
-            i>>>=1;
+            symbol = stack[--stackLength];
+            int a = referenceA[symbol];
+            if(symbol < storedSymbols || a < 0)
+            {
+                int symbolLength = symbol < storedSymbols ? dataLengths[symbol] : hasEndOfLine[symbol] ? 0 : 1;
+                if(length + symbolLength > buffer.length)
+                    buffer = Arrays.copyOf(buffer, Math.max(2 * buffer.length, length + symbolLength));
+                if(symbol < storedSymbols)
+                    System.arraycopy(data, offsets[symbol], buffer, length, symbolLength);
+                else if(symbolLength > 0)
+                    buffer[length] = (byte)referenceB[symbol];
+                length += symbolLength;
+            }
+            else
+            {
+                if(stackLength + 2 > stack.length)
+                    stack = Arrays.copyOf(stack, 2 * stack.length);
+                stack[stackLength++] = referenceB[symbol];
+                stack[stackLength++] = a;
+            }
         }
-        return result;
+        expansion.buffer = buffer;
+        expansion.stack = stack;
+        expansion.length = length;
     }
 
-    class DecodeNode {
-        DecodeNode a;
-        DecodeNode b;
-
-        byte[] data;
-
-        DecodeNode toResolveA;
-        DecodeNode toResolveB;
-
-        DecodeNode[] leaves;
-        int leaveBits;
-
-        boolean hasEndOfLine;
-
-        int firstLeaveDepth;
-        int depth;
+    //The buffers used to expand symbols. Every read uses its own, so the Decoder itself is never changed after loading.
+    private static class Expansion {
+        byte[] buffer = new byte[256];
+        int[] stack = new int[64];
+        int length;
+    }
 
-        DecodeNode(int[] leaveCount, int[] depths, int topDepth, DecodeNode[][] nodes, int depth)
+    //Writes the bytes of all the symbols in the data array.
+    //First the symbols are ordered so that the references of a symbol come before the symbol itself, to count the lengths.
+    //Then the symbols are written in the reverse order, so a symbol is written before the symbols it refers to.
+    //A symbol that is not written yet gets the bytes at its place in the symbol that refers to it. Only the symbols that
+    //are not part of another symbol get their own space, and the others are copied when they are used again.
+    private void resolve() throws IOException
+    {
+        int symbolCount = hasEndOfLine.length;
+        dataLengths = new int[symbolCount];
+        int[] order = new int[symbolCount];
+        int orderLength = 0;
+        int[] stack = new int[2 * symbolCount + 1];
+        boolean[] visited = new boolean[symbolCount];
+        for(int i = 0; i < symbolCount; i++)
         {
-            this.depth = depth;
-
-            if(leaveCount[depth] < depths[depth])
-            {
-                if(nodes[depth]==null)
-                    nodes[depth] = new DecodeNode[depths[depth]];
-                nodes[depth][leaveCount[depth]] = this;
-                leaveCount[depth]++;
-
-                firstLeaveDepth = depth;
-            }
-            else //is not a leave
+            if(visited[i])
+                continue;
+            int stackLength = 0;
+            stack[stackLength++] = i;
+            visited[i] = true;
+            while(stackLength > 0)
             {
-                a = new DecodeNode(leaveCount, depths, topDepth, nodes, depth + 1);
-                b = new DecodeNode(leaveCount, depths, topDepth, nodes, depth + 1);
-                firstLeaveDepth = Math.min(a.firstLeaveDepth, b.firstLeaveDepth);
+                int symbol = stack[stackLength - 1];
+                int a = referenceA[symbol];
+                int b = referenceB[symbol];
+                if(a >= 0 && !visited[a]) {
+                    visited[a] = true;
+                    stack[stackLength++] = a;
+                }
+                else if(a >= 0 && !visited[b]) {
+                    visited[b] = true;
+                    stack[stackLength++] = b;
+                }
+                else {
+                    stackLength--;
+                    if(a < 0)
+                        dataLengths[symbol] = hasEndOfLine[symbol] ? 0 : 1;
+                    else {
+                        dataLengths[symbol] = dataLengths[a] + dataLengths[b];
+                        if(dataLengths[symbol] < 0)
+                            throw new IOException("The dictionary contains a symbol that is too long.");
+                        hasEndOfLine[symbol] = hasEndOfLine[b];
+                    }
+                    order[orderLength++] = symbol;
+                }
             }
         }
 
-        void setLeaves(int nextDepth, DecodeNode[] leavesToSet, int[] leaveIndex, int bitSize)
+        offsets = new int[symbolCount];
+        Arrays.fill(offsets, -1);
+        int[] positions = new int[stack.length];
+        data = new byte[1 << 16];
+        int dataLength = 0;
+        for(int i = symbolCount - 1; i >= 0; i--)
         {
-            if(depth == nextDepth)
+            int root = order[i];
+            if(offsets[root] >= 0)
+                continue;
+            if(dataLength + dataLengths[root] > data.length)
             {
-                if(leavesToSet.length > 0)
-                    leavesToSet[reverse(leaveIndex[0]++, bitSize)] = this;
-                if(a != null)
+                long newLength = Math.max(2L * data.length, (long)dataLength + dataLengths[root]);
+                if(newLength > Integer.MAX_VALUE - 8)
+                    throw new IOException("The dictionary is too big to decode in memory.");
+                data = Arrays.copyOf(data, (int)newLength);
+            }
+            int stackLength = 0;
+            stack[stackLength] = root;
+            positions[stackLength++] = dataLength;
+            dataLength += dataLengths[root];
+            while(stackLength > 0)
+            {
+                int symbol = stack[--stackLength];
+                int position = positions[stackLength];
+                if(offsets[symbol] >= 0)
+                    System.arraycopy(data, offsets[symbol], data, position, dataLengths[symbol]);
+                else
                 {
-                    leaveBits = firstLeaveDepth-depth;
-                    leaves = new DecodeNode[1 << leaveBits];
-
-                    int[] leaveIndex2 = new int[1];
-                    a.setLeaves(firstLeaveDepth, leaves, leaveIndex2, leaveBits);
-                    b.setLeaves(firstLeaveDepth, leaves, leaveIndex2, leaveBits);
+                    offsets[symbol] = position;
+                    int a = referenceA[symbol];
+                    if(a < 0) {
+                        if(dataLengths[symbol] > 0)
+                            data[position] = (byte)referenceB[symbol];
+                    }
+                    else {
+                        //b is pushed first, so everything in a is written before b is handled.
+                        stack[stackLength] = referenceB[symbol];
+                        positions[stackLength++] = position + dataLengths[a];
+                        stack[stackLength] = a;
+                        positions[stackLength++] = position;
+                    }
                 }
             }
-            else {
-                a.setLeaves(nextDepth, leavesToSet, leaveIndex, bitSize);
-                b.setLeaves(nextDepth, leavesToSet, leaveIndex, bitSize);
+        }
+        data = Arrays.copyOf(data, dataLength);
+        storedSymbols = symbolCount;
+    }
+
+    //Simulates decoding every possible window of MULTI_BITS bits using the first level table.
+    //Bits after the window are zero. A symbol is only accepted when its code fits completely inside the window,
+    //so the result does not depend on those bits.
+    private void buildMultiTable()
+    {
+        int size = 1 << MULTI_BITS;
+        multiTable = new int[size];
+        multiOffsets = new int[size];
+        byte[] buffer = new byte[size * MULTI_MAX_DATA];
+        int bufferLength = 0;
+        for(int index = 0; index < size; index++)
+        {
+            int position = 0;
+            int length = 0;
+            int endOfLine = 0;
+            for(int count = 0; count < MULTI_SYMBOLS && endOfLine == 0; count++)
+            {
+                int entry = table[(index >>> position) & ((1 << tableBits) - 1)];
+                int bits = entry & LENGTH_MASK;
+                if((entry & LINK) != 0 || bits == 0 || position + bits > MULTI_BITS)
+                    break;
+                int symbol = entry >>> VALUE_SHIFT;
+                int symbolLength = dataLengths[symbol];
+                if(length + symbolLength > MULTI_MAX_DATA)
+                    break;
+                System.arraycopy(data, offsets[symbol], buffer, bufferLength + length, symbolLength);
+                length += symbolLength;
+                position += bits;
+                if(hasEndOfLine[entry >>> VALUE_SHIFT])
+                    endOfLine = MULTI_END_OF_LINE;
             }
+            multiTable[index] = (length << MULTI_LENGTH_SHIFT) | endOfLine | position;
+            multiOffsets[index] = bufferLength;
+            bufferLength += length;
         }
+        multiData = new byte[bufferLength];
+        System.arraycopy(buffer, 0, multiData, 0, bufferLength);
+    }
 
-        DecodeNode get(BitStreamReader reader) throws Exception {
-            DecodeNode n = this;
-            while(n.leaves != null)//is leaf
-                n = n.leaves[reader.nextBits(n.leaveBits)];
-            return n;
+    //The number of bits used to index the (sub) table of the symbols from 'from' to the last symbol.
+    //The symbols are sorted by code length, so the last one is the longest.
+    private static int subTableBits(int[] lengths, int to, int consumed)
+    {
+        return to == 0 ? 0 : Math.min(consumed == 0 ? TABLE_BITS : SUB_TABLE_BITS, lengths[to-1] - consumed);
+    }
+
+    //Fills the table for the symbols from 'from' to 'to' that all share the first 'consumed' bits of their code.
+    //Codes that are too long for this table are grouped by their next bits and get a sub table.
+    private int buildTable(int[] lengths, long[] codes, int from, int to, int consumed, int bits)
+    {
+        int offset = allocate(1 << bits);
+        int i = from;
+        while(i < to)
+        {
+            int length = lengths[i] - consumed;
+            if(length <= bits)
+            {
+                int entry = (i << VALUE_SHIFT) | length;
+                for(int index = reverse((int)codes[i], length); index < (1 << bits); index += 1 << length)
+                    table[offset + index] = entry;
+                i++;
+            }
+            else
+            {
+                long prefix = codes[i] >>> (length - bits);
+                int end = i + 1;
+                while(end < to && (codes[end] >>> (lengths[end] - consumed - bits)) == prefix)
+                    end++;
+                int subBits = subTableBits(lengths, end, consumed + bits);
+                int subOffset = buildTable(lengths, codes, i, end, consumed + bits, subBits);
+                table[offset + reverse((int)prefix, bits)] = (subOffset << VALUE_SHIFT) | LINK | subBits;
+                i = end;
+            }
         }
+        return offset;
+    }
 
-        void resolve()
+    private int allocate(int size)
+    {
+        if(tableLength + size > table.length)
         {
-            if(data != null)
-                return;
-            toResolveA.resolve();
-            toResolveB.resolve();
-            data = combine(toResolveA.data, toResolveB.data);
-            hasEndOfLine = toResolveB.hasEndOfLine;
-            toResolveA = null;
-            toResolveB = null;
-            a = null;
-            b = null;
+            int[] newTable = new int[Math.max(table.length << 1, tableLength + size)];
+            System.arraycopy(table, 0, newTable, 0, tableLength);
+            table = newTable;
         }
+        tableLength += size;
+        return tableLength - size;
     }
 
-    private static byte[] combine(byte[] key1, byte[] key2)
+    //Reverses the lowest n bits. The codes are written with the first bit of the code as the first bit in the stream.
+    private static int reverse(int i, int n)
     {
-        byte[] key = new byte[key1.length + key2.length];
-        System.arraycopy(key1, 0, key, 0, key1.length);
-        System.arraycopy(key2, 0, key, key1.length, key2.length);
-        return key;
+        return n == 0 ? 0 : Integer.reverse(i) >>> (32 - n);
+    }
+
+    public static int bitSize(long i)
+    {
+        int result = 0;
+        while(i > 0)
+        {
+            result++;
+            i>>>=1;
+        }
+        return result;
     }
 }
@@ -0,0 +1,94 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Reads the field index that encoders.FieldIndexWriter writes at the end of an archive.
+Only the trailer and the header are read when opening. The positions are decoded from the buffer when asked for,
+so opening is cheap even for millions of fields. The buffer is never changed, so it can be shared among threads.
+ */
+package decoders;
+
+import java.nio.ByteBuffer;
+
+public class FieldIndex {
+    public static final long MAGIC = 0x4C4249545F494458L; //"LBIT_IDX"
+
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int lowerBits;
+    private final int lowerStart;
+    private final int upperStart;
+    private final int upperWords;
+    private final int samplesStart;
+
+    private FieldIndex(ByteBuffer buffer, int start)
+    {
+        this.buffer = buffer;
+        count = (int)buffer.getLong(start);
+        lowerBits = (int)buffer.getLong(start + 8);
+        upperWords = (int)buffer.getLong(start + 16);
+        lowerStart = start + 32;
+        upperStart = lowerStart + 8 * (int)(((long)count * lowerBits + 63) >>> 6);
+        samplesStart = upperStart + 8 * upperWords;
+    }
+
+    //Returns null when the buffer does not end with an index.
+    public static FieldIndex open(ByteBuffer buffer)
+    {
+        int end = buffer.limit();
+        if(end < 16 || buffer.getLong(end - 8) != MAGIC)
+            return null;
+        long size = buffer.getLong(end - 16);
+        return new FieldIndex(buffer, (int)(end - 16 - size));
+    }
+
+    //The start of the index, which is also the end of the data.
+    public int start()
+    {
+        return lowerStart - 32;
+    }
+
+    public int size()
+    {
+        return count;
+    }
+
+    //The bit position of the field relative to the start of the data.
+    public long position(int field)
+    {
+        if(field < 0 || field >= count)
+            throw new IndexOutOfBoundsException("Field " + field + " does not exist. There are " + count + " fields.");
+        long upper = select(field) - field;
+        if(lowerBits == 0)
+            return upper;
+        long bit = (long)field * lowerBits;
+        int word = (int)(bit >>> 6);
+        int shift = (int)(bit & 63);
+        long lower = buffer.getLong(lowerStart + 8 * word) >>> shift;
+        if(shift + lowerBits > 64)
+            lower |= buffer.getLong(lowerStart + 8 * (word + 1)) << (64 - shift);
+        return (upper << lowerBits) | (lower & ((1L << lowerBits) - 1));
+    }
+
+    //The position of the set bit with the given rank in the upper bit array.
+    private long select(int rank)
+    {
+        long bit = buffer.getLong(samplesStart + 8 * (rank >>> 6));
+        int remaining = rank & 63;
+        int word = (int)(bit >>> 6);
+        long value = buffer.getLong(upperStart + 8 * word) & (-1L << bit);
+        while(true)
+        {
+            int bits = Long.bitCount(value);
+            if(remaining < bits)
+            {
+                for(int i = 0; i < remaining; i++)
+                    value &= value - 1;
+                return ((long)word << 6) + Long.numberOfTrailingZeros(value);
+            }
+            remaining -= bits;
+            value = buffer.getLong(upperStart + 8 * ++word);
+        }
+    }
+}
@@ -0,0 +1,307 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Random access reading of the fields of a .bits file.
+The file is memory mapped and the dictionary is loaded once. A field is decoded directly from its bit position,
+as returned by Encoder.encode, without reading anything before it.
+In an archive (see Archive) only the header and the section table are read when opening, the Decoder is loaded when
+it is first needed. When the archive contains decode tables they are loaded instead of built from the dictionary.
+Files in the older format are read too, then the dictionary is loaded when opening.
+Files up to 2 GB are memory mapped as a whole. Of a bigger archive only the small sections are mapped and the data is
+read with an io.FileChannelBitReader, the same for the data of a bigger file in the older format. The file then stays
+open until the FieldReader is closed.
+When the file ends with a field index or a block directory, fields can also be read by their number.
+With a block directory only the block that contains the field is read.
+Every read uses its own BitReader on the shared buffer and the Decoder is never changed after loading,
+so one FieldReader can be used by many threads at the same time.
+ */
+package decoders;
+
+import io.ByteBufferBitReader;
+import io.FileChannelBitReader;
+import io.SeekableBitReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+public class FieldReader implements Closeable {
+    //Without a buffer the data is read from the channel, starting at dataOffset in the file.
+    private final ByteBuffer data;
+    private final FileChannel channel;
+    private final long dataOffset;
+    //The number of bytes of data, from the start of the buffer or from dataOffset.
+    private final long dataLength;
+    private final ByteBuffer dictionary;
+    private final ByteBuffer tables;
+    private final boolean multiSymbol;
+    private final int cacheSize;
+    private volatile Decoder decoder;
+    private final long dataStart;
+    private final FieldIndex fieldIndex;
+    private final BlockDirectory blockDirectory;
+
+    public FieldReader(File file) throws Exception {
+        this(file, false);
+    }
+
+    public FieldReader(File file, boolean multiSymbol) throws Exception {
+        this(file, multiSymbol, -1);
+    }
+
+    //Uses a Decoder in low memory mode, that stores at most cacheSize bytes of symbol data.
+    public FieldReader(File file, int cacheSize) throws Exception {
+        this(file, false, cacheSize);
+    }
+
+    private FieldReader(File file, boolean multiSymbol, int cacheSize) throws Exception {
+        this.multiSymbol = multiSymbol;
+        this.cacheSize = cacheSize;
+        FileChannel channel = FileChannel.open(file.toPath());
+        try {
+            long size = channel.size();
+            ByteBuffer buffer = size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+            Archive archive = buffer != null ? Archive.open(buffer) : Archive.open(channel);
+            if(archive == null) {
+                //The data follows the dictionary directly, so the dictionary is read to find the start of the data.
+                data = buffer;
+                dataOffset = 0;
+                dataLength = size;
+                dictionary = null;
+                tables = null;
+                SeekableBitReader reader = buffer != null ? new ByteBufferBitReader(buffer) : new FileChannelBitReader(channel);
+                reader.seek(0);
+                decoder = loadDecoder(reader);
+                dataStart = reader.bitPosition();
+                ByteBuffer end = buffer != null ? buffer : mapEnd(channel, size);
+                fieldIndex = FieldIndex.open(end);
+                blockDirectory = BlockDirectory.open(end);
+            }
+            else {
+                dictionary = archive.section(Archive.DICTIONARY);
+                dataLength = archive.sectionLength(Archive.DATA);
+                if(dataLength < 0 || dictionary == null)
+                    throw new IOException("The archive has no dictionary or no data.");
+                tables = cacheSize < 0 ? archive.section(Archive.DECODE_TABLES) : null;
+                dataOffset = archive.sectionStart(Archive.DATA);
+                data = dataLength <= Integer.MAX_VALUE ? archive.section(Archive.DATA) : null;
+                dataStart = 0;
+                ByteBuffer index = archive.section(Archive.FIELD_INDEX);
+                fieldIndex = index == null ? null : FieldIndex.open(index);
+                blockDirectory = BlockDirectory.open(data != null ? data : mapEnd(channel, dataOffset + dataLength));
+            }
+        } catch (Exception e) {
+            channel.close();
+            throw e;
+        }
+        //Mapped buffers stay valid after the channel is closed.
+        if(data != null) {
+            channel.close();
+            this.channel = null;
+        }
+        else
+            this.channel = channel;
+    }
+
+    //Maps the last part of the file up to 'end', to find an index or directory that ends there. Only the pages that are
+    //used are read.
+    private static ByteBuffer mapEnd(FileChannel channel, long end) throws IOException {
+        long start = Math.max(0, end - Integer.MAX_VALUE);
+        return channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+    }
+
+    //Closes the file when the data is read from it. The buffers that are mapped do not need it.
+    @Override
+    public void close() throws IOException {
+        if(channel != null)
+            channel.close();
+    }
+
+    //In an archive the Decoder is loaded by the first call. Loading it twice at the same time is prevented.
+    public Decoder getDecoder() throws Exception {
+        Decoder result = decoder;
+        if(result == null) {
+            synchronized (this) {
+                if(decoder == null)
+                    decoder = tables != null ? Decoder.readTables(tables, multiSymbol) : loadDecoder(new ByteBufferBitReader(dictionary));
+                result = decoder;
+            }
+        }
+        return result;
+    }
+
+    private Decoder loadDecoder(SeekableBitReader reader) throws Exception {
+        return cacheSize < 0 ? new Decoder(reader, multiSymbol) : new Decoder(reader, cacheSize);
+    }
+
+    //The bit position where the data starts, in the file or in the data section of an archive. Block positions are
+    //relative to the start of the file or of the data section.
+    //Field positions are relative to this position.
+    public long getDataStart() {
+        return dataStart;
+    }
+
+    //Returns null when the file has no field index.
+    public FieldIndex getFieldIndex() {
+        return fieldIndex;
+    }
+
+    //Returns null when the file is not stored in blocks.
+    public BlockDirectory getBlockDirectory() {
+        return blockDirectory;
+    }
+
+    public void readIndexedField(int field, OutputStream output) throws Exception {
+        getDecoder().readField(indexedFieldReader(field), output);
+    }
+
+    //Reads the field into the array, starting at offset. Returns the number of bytes written.
+    public int readIndexedField(int field, byte[] output, int offset) throws Exception {
+        return getDecoder().readField(indexedFieldReader(field), output, offset);
+    }
+
+    //Reads the field into the buffer at its position and moves the position past the field.
+    public int readIndexedField(int field, ByteBuffer output) throws Exception {
+        return getDecoder().readField(indexedFieldReader(field), output);
+    }
+
+    //The number of bytes of the field, to allocate the output exactly. This decodes the field once without writing it.
+    public int indexedFieldLength(int field) throws Exception {
+        return getDecoder().fieldLength(indexedFieldReader(field));
+    }
+
+    //Returns a reader positioned at the start of the field.
+    private SeekableBitReader indexedFieldReader(int field) throws Exception {
+        if(fieldIndex != null)
+            return fieldReader(fieldIndex.position(field));
+        if(blockDirectory != null)
+        {
+            Decoder decoder = getDecoder();
+            int block = blockDirectory.find(field);
+            SeekableBitReader reader = blockReader(block);
+            for(int i = blockDirectory.firstField(block); i < field; i++)
+                decoder.skipField(reader);
+            return reader;
+        }
+        throw new IOException("The file has no field index or block directory.");
+    }
+
+    //Reads all the fields in the blocks from firstBlock up to endBlock.
+    public void readBlocks(int firstBlock, int endBlock, OutputStream output) throws Exception {
+        Decoder decoder = getDecoder();
+        for(int block = firstBlock; block < endBlock; block++)
+        {
+            SeekableBitReader reader = blockReader(block);
+            for(int i = blockDirectory.firstField(block); i < blockDirectory.firstField(block + 1); i++)
+                decoder.readField(reader, output);
+        }
+    }
+
+    //Returns a reader positioned after the header of the block.
+    private SeekableBitReader blockReader(int block) throws IOException {
+        return dataReader(blockDirectory.bitPosition(block) + 32);
+    }
+
+    public byte[] readIndexedField(int field) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        readIndexedField(field, output);
+        return output.toByteArray();
+    }
+
+    public void readField(long bitPosition, OutputStream output) throws Exception {
+        getDecoder().readField(fieldReader(bitPosition), output);
+    }
+
+    //Reads the field into the array, starting at offset. Returns the number of bytes written.
+    public int readField(long bitPosition, byte[] output, int offset) throws Exception {
+        return getDecoder().readField(fieldReader(bitPosition), output, offset);
+    }
+
+    //Reads the field into the buffer at its position and moves the position past the field.
+    public int readField(long bitPosition, ByteBuffer output) throws Exception {
+        return getDecoder().readField(fieldReader(bitPosition), output);
+    }
+
+    //The number of bytes of the field, to allocate the output exactly. This decodes the field once without writing it.
+    public int fieldLength(long bitPosition) throws Exception {
+        return getDecoder().fieldLength(fieldReader(bitPosition));
+    }
+
+    //Reads a number of fields that are stored after each other, starting with the field at the bit position.
+    public void readFields(long bitPosition, int count, OutputStream output) throws Exception {
+        Decoder decoder = getDecoder();
+        SeekableBitReader reader = fieldReader(bitPosition);
+        for(int i = 0; i < count; i++)
+            decoder.readField(reader, output);
+    }
+
+    public byte[] readField(long bitPosition) throws Exception {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        readField(bitPosition, output);
+        return output.toByteArray();
+    }
+
+    //Reads all the fields from start to end with one reader, without the memory or threads of ParallelDecoder.
+    //When the data is read from the file, the reader uses a large window so every byte is read from the file once.
+    //Without a field index or block directory the fields are read until the data ends. The last byte is padded with
+    //zeros, so fewer than 8 bits at the end that are all zero are the padding. Only when such zeros can also be read as
+    //fields the end is not known and an IOException is thrown.
+    public void readAll(OutputStream output) throws Exception {
+        Decoder decoder = getDecoder();
+        SeekableBitReader reader = data != null ? new ByteBufferBitReader(data) : new FileChannelBitReader(channel, 1 << 20);
+        long offset = data != null ? 0 : dataOffset << 3;
+        if(blockDirectory != null)
+        {
+            for(int block = 0; block < blockDirectory.size(); block++)
+            {
+                reader.seek(offset + blockDirectory.bitPosition(block) + 32);
+                for(int i = blockDirectory.firstField(block); i < blockDirectory.firstField(block + 1); i++)
+                    decoder.readField(reader, output);
+            }
+            return;
+        }
+        if(fieldIndex == null) {
+            long end = offset + (dataLength << 3);
+            int zeroFieldBits = decoder.zeroFieldBits();
+            reader.seek(offset + dataStart);
+            while(reader.bitPosition() < end)
+            {
+                int left = (int)Math.min(end - reader.bitPosition(), 8);
+                if(left < 8 && reader.peekBits(left) == 0) {
+                    if(zeroFieldBits > 0 && left >= zeroFieldBits)
+                        throw new IOException("The last bits of the data can be padding or fields, this file needs a field index to be read.");
+                    break;
+                }
+                decoder.readField(reader, output);
+            }
+            return;
+        }
+        if(fieldIndex.size() == 0)
+            return;
+        reader.seek(offset + dataStart + fieldIndex.position(0));
+        for(int i = 0; i < fieldIndex.size(); i++)
+            decoder.readField(reader, output);
+    }
+
+    private SeekableBitReader fieldReader(long bitPosition) throws IOException {
+        return dataReader(dataStart + bitPosition);
+    }
+
+    //Returns a reader positioned at the bit position, relative to the start of the file or the data section.
+    private SeekableBitReader dataReader(long bitPosition) throws IOException {
+        if(data != null) {
+            ByteBufferBitReader reader = new ByteBufferBitReader(data);
+            reader.seek(bitPosition);
+            return reader;
+        }
+        FileChannelBitReader reader = new FileChannelBitReader(channel);
+        reader.seek((dataOffset << 3) + bitPosition);
+        return reader;
+    }
+}
@@ -0,0 +1,76 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Decodes all the fields of an archive using multiple cores.
+The field index or the block directory is used to split the data in ranges of fields of around the same size. Every range is decoded
+by a task of a ForkJoinPool into its own buffer. The buffers are written in order, while the following ranges are
+still being decoded. Only a limited number of ranges is in progress at the same time, so memory usage does not
+depend on the size of the archive.
+ */
+package decoders;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class ParallelDecoder {
+    private static final long RANGE_BITS = 1L << 23; //1 megabyte of encoded data per range
+
+    public static void decode(FieldReader reader, OutputStream output) throws Exception {
+        decode(reader, output, ForkJoinPool.commonPool());
+    }
+
+    public static void decode(FieldReader reader, OutputStream output, ForkJoinPool pool) throws Exception {
+        FieldIndex index = reader.getFieldIndex();
+        BlockDirectory blocks = reader.getBlockDirectory();
+        if(index == null && blocks == null)
+            throw new IOException("The file has no field index or block directory.");
+
+        int count = index != null ? index.size() : blocks.size();
+        int blocksPerRange = blocks == null ? 0 : (int)Math.max(1, RANGE_BITS / (8L * blocks.blockSize()));
+        int maxTasks = pool.getParallelism() * 2;
+        ArrayDeque<ForkJoinTask<byte[]>> tasks = new ArrayDeque<>();
+        int next = 0;
+        while(next < count || !tasks.isEmpty())
+        {
+            while(next < count && tasks.size() < maxTasks)
+            {
+                int first = next;
+                int end = index != null ? nextRange(index, first) : Math.min(count, first + blocksPerRange);
+                tasks.add(pool.submit(() -> {
+                    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+                    if(index != null)
+                        reader.readFields(index.position(first), end - first, buffer);
+                    else
+                        reader.readBlocks(first, end, buffer);
+                    return buffer.toByteArray();
+                }));
+                next = end;
+            }
+            output.write(tasks.removeFirst().get());
+        }
+    }
+
+    //Returns the first field after the range that starts at the given field.
+    //The range contains at least one field and ends at the first field that starts RANGE_BITS or more after it.
+    private static int nextRange(FieldIndex index, int first)
+    {
+        long end = index.position(first) + RANGE_BITS;
+        int low = first + 1;
+        int high = index.size();
+        while(low < high)
+        {
+            int middle = (low + high) >>> 1;
+            if(index.position(middle) < end)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Writes an archive with a header and a section table, see decoders.Archive for the layout.
+The writer is an OutputStream: everything that is written after startSection belongs to that section, until the next
+section is started or the writer is closed. So a section can be streamed without knowing its length first.
+Closing writes the section table and closes the output.
+ */
+package encoders;
+
+import decoders.Archive;
+import decoders.Decoder;
+import io.ByteBufferBitReader;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ArchiveWriter extends OutputStream {
+    private final DataOutputStream output;
+    private long position;
+    private long[] sections = new long[3 * 4];
+    private int sectionCount;
+    private boolean closed;
+
+    public ArchiveWriter(OutputStream output) throws IOException {
+        this.output = new DataOutputStream(output);
+        this.output.writeLong(Archive.MAGIC);
+        this.output.writeLong(Archive.VERSION);
+        position = 16;
+    }
+
+    //Ends the current section and starts a section of the type. Every type can only be used once.
+    public void startSection(int type)
+    {
+        for(int i = 0; i < sectionCount; i++)
+            if(sections[3 * i] == type)
+                throw new IllegalArgumentException("The archive already has a section of type " + type + ".");
+        endSection();
+        if(3 * sectionCount + 3 > sections.length)
+            sections = Arrays.copyOf(sections, sections.length << 1);
+        sections[3 * sectionCount] = type;
+        sections[3 * sectionCount + 1] = position;
+        sections[3 * sectionCount + 2] = -1;
+        sectionCount++;
+    }
+
+    //Pads with zeros so the section starts at a multiple of alignment bytes in the file. The data in blocks is aligned
+    //to the block size, so the blocks are aligned in the file too and a block does not span two pages.
+    public void startSection(int type, int alignment) throws IOException {
+        endSection();
+        write(new byte[(int)((alignment - position % alignment) % alignment)]);
+        startSection(type);
+    }
+
+    public void writeSection(int type, byte[] bytes) throws IOException {
+        startSection(type);
+        write(bytes);
+        endSection();
+    }
+
+    //Writes the tables of a Decoder for the dictionary, so a reader can load them instead of building them.
+    //This makes the archive bigger: around 8 bytes per symbol and the bytes of the symbols.
+    public void writeDecodeTables(byte[] dictionary) throws Exception {
+        Decoder decoder = new Decoder(new ByteBufferBitReader(ByteBuffer.wrap(dictionary)));
+        startSection(Archive.DECODE_TABLES);
+        decoder.writeTables(this);
+        endSection();
+        System.out.println("Size of tables:\t\t" + sections[3 * sectionCount - 1] + " bytes");
+    }
+
+    private void endSection()
+    {
+        if(sectionCount > 0 && sections[3 * sectionCount - 1] < 0)
+            sections[3 * sectionCount - 1] = position - sections[3 * sectionCount - 2];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        output.write(b);
+        position++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        output.write(b, off, len);
+        position += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed)
+            return;
+        closed = true;
+        endSection();
+        for(int i = 0; i < 3 * sectionCount; i++)
+            output.writeLong(sections[i]);
+        output.writeLong(sectionCount);
+        output.writeLong(Archive.MAGIC);
+        output.close();
+    }
+}
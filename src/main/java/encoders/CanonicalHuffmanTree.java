@@ -5,10 +5,10 @@ Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.
  */
 
 import decoders.Decoder;
-import io.BitSet;
 import io.BitStreamWriter;
 
 import java.io.IOException;
+import java.util.Arrays;
 
 class CanonicalHuffmanTree {
 
@@ -17,13 +17,19 @@ class CanonicalHuffmanTree {
     private int firstOccurrence;
     private int lastOccurrence;
     private int biggestCount;
+    //The code of every symbol in the order of the frequencies, with the first bit as lowest bit, and its length.
+    //The data can be written with these tables without a HuffmanNode per symbol.
+    final long[] codes;
+    final byte[] codeLengths;
 
-    CanonicalHuffmanTree(HuffmanNode[] frequencies)
+    CanonicalHuffmanTree(HuffmanNode[] frequencies, int maxLength)
     {
-        HuffmanNode root = HuffmanNode.method2(frequencies);
-
         int[] depths = new int[64];
-        root.getDepths(depths, 0);
+        huffmanDepths(frequencies, depths);
+        maxLength = feasibleLength(frequencies.length, maxLength);
+
+        if(maxLength > 0 && lastIndex(depths) > maxLength)
+            limitDepths(frequencies, depths, maxLength);
 
         this.depths = depths;
         firstOccurrence = 0;
@@ -74,38 +80,168 @@ class CanonicalHuffmanTree {
             }
         }
 
-        //Assign new canonical bits.
-        BitSet bits = new BitSet(firstOccurrence,0);
+        //Assign new canonical bits. The first bit of a code is written first, so the codes are reversed.
+        long code = 0;
         for(int i = firstOccurrence; i <= lastOccurrence; i++)
         {
             for(int x = 0; x < newFreqs[i].length; x++)
             {
-                newFreqs[i][x].bitSet = bits.reverse();
-                bits.increase();
+                newFreqs[i][x].code = Long.reverse(code) >>> (64 - i);
+                code++;
             }
-            bits.increaseLength();
-            bits.shiftLeft();
+            code <<= 1;
         }
         this.frequencyArray = newFreqs;
+
+        codes = new long[frequencies.length];
+        codeLengths = new byte[frequencies.length];
+        for(int i = 0; i < frequencies.length; i++)
+        {
+            codes[i] = frequencies[i].code;
+            codeLengths[i] = (byte)frequencies[i].depth;
+        }
+    }
+
+    //Sets the depth of every symbol in a Huffman tree and counts the depths. The symbols are sorted by frequency and the
+    //tree is built with two queues: the sorted symbols and the new nodes, which are made in order of weight.
+    //On an equal weight the symbol goes first. Only the parent of every node is kept, the depths are set from the root down.
+    private static void huffmanDepths(HuffmanNode[] frequencies, int[] depths)
+    {
+        int n = frequencies.length;
+        long[] sorted = new long[n];
+        for(int i = 0; i < n; i++)
+            sorted[i] = ((long)frequencies[i].frequency << 32) | i;
+        Arrays.sort(sorted);
+
+        int nodeCount = 2 * n - 1;
+        long[] weights = new long[nodeCount];
+        int[] parents = new int[nodeCount];
+        for(int i = 0; i < n; i++)
+            weights[i] = sorted[i] >>> 32;
+        int leaf = 0;
+        int node = n;
+        for(int next = n; next < nodeCount; next++)
+        {
+            int a = leaf < n && (node == next || weights[leaf] <= weights[node]) ? leaf++ : node++;
+            int b = leaf < n && (node == next || weights[leaf] <= weights[node]) ? leaf++ : node++;
+            weights[next] = weights[a] + weights[b];
+            parents[a] = next;
+            parents[b] = next;
+        }
+
+        int[] nodeDepths = new int[nodeCount];
+        for(int i = nodeCount - 2; i >= 0; i--)
+            nodeDepths[i] = nodeDepths[parents[i]] + 1;
+        for(int i = 0; i < n; i++)
+        {
+            HuffmanNode frequency = frequencies[(int)sorted[i]];
+            frequency.depth = nodeDepths[i];
+            depths[frequency.depth]++;
+        }
+    }
+
+    //Returns maxLength, or the shortest maximum code length that fits the symbols when maxLength is too short for them.
+    //Then a warning is printed, so the encoding goes on instead of failing after all the symbols are found.
+    static int feasibleLength(int symbolCount, int maxLength)
+    {
+        if(maxLength <= 0 || symbolCount <= (1L << maxLength))
+            return maxLength;
+        int result = 64 - Long.numberOfLeadingZeros(symbolCount - 1);
+        System.out.println("There are too many symbols (" + symbolCount + ") for a maximum code length of " + maxLength + " bits, the codes are limited to " + result + " bits.");
+        return result;
+    }
+
+    private static int lastIndex(int[] depths)
+    {
+        int result = 0;
+        for(int i = 0; i < depths.length; i++)
+            if(depths[i] > 0)
+                result = i;
+        return result;
+    }
+
+    //Replaces the depths of the Huffman tree with optimal depths of at most maxLength bits using package-merge.
+    //The symbols are sorted by frequency. At every level the list contains the symbols and the packages (pairs) of
+    //the list of the level below, sorted by weight. Only a flag per item is kept to know if it is a package.
+    //The first 2n-2 items of the last list are selected. A selected symbol gets one bit more at every level it is
+    //selected in, and every selected package selects its 2 items in the level below.
+    private static void limitDepths(HuffmanNode[] frequencies, int[] depths, int maxLength)
+    {
+        int n = frequencies.length;
+        if(n > (1L << maxLength))
+            throw new IllegalArgumentException("There are too many symbols (" + n + ") for a maximum code length of " + maxLength + " bits.");
+
+        long[] sorted = new long[n];
+        for(int i = 0; i < n; i++)
+            sorted[i] = ((long)frequencies[i].frequency << 32) | i;
+        Arrays.sort(sorted);
+        long[] weights = new long[n];
+        for(int i = 0; i < n; i++)
+            weights[i] = sorted[i] >>> 32;
+
+        long[][] isPackage = new long[maxLength][];
+        int[] listLengths = new int[maxLength];
+        long[] list = weights.clone();
+        long[] next = new long[2 * n];
+        listLengths[0] = n;
+        for(int level = 1; level < maxLength; level++)
+        {
+            int previousLength = listLengths[level-1];
+            int packages = previousLength >> 1;
+            long[] flags = new long[((n + packages) >> 6) + 1];
+            int leaf = 0;
+            int pack = 0;
+            int length = 0;
+            while(leaf < n || pack < packages)
+            {
+                if(pack == packages || (leaf < n && weights[leaf] <= list[2 * pack] + list[2 * pack + 1]))
+                    next[length++] = weights[leaf++];
+                else
+                {
+                    next[length] = list[2 * pack] + list[2 * pack + 1];
+                    flags[length >> 6] |= 1L << length;
+                    length++;
+                    pack++;
+                }
+            }
+            isPackage[level] = flags;
+            listLengths[level] = length;
+            long[] temp = list;
+            list = next;
+            next = temp.length >= 2 * n ? temp : new long[2 * n];
+        }
+
+        int[] lengths = new int[n];
+        int selected = 2 * n - 2;
+        for(int level = maxLength - 1; level >= 0 && selected > 0; level--)
+        {
+            int leaves = 0;
+            for(int i = 0; i < selected; i++)
+                if(level == 0 || (isPackage[level][i >> 6] & (1L << i)) == 0)
+                    lengths[leaves++]++;
+            selected = 2 * (selected - leaves);
+        }
+
+        Arrays.fill(depths, 0);
+        for(int i = 0; i < n; i++)
+        {
+            HuffmanNode node = frequencies[(int)sorted[i]];
+            node.depth = lengths[i];
+            depths[node.depth]++;
+        }
     }
 
     void writeTree(BitStreamWriter writer) throws IOException {
         long startLength = writer.length();
 
         int bitSize = Decoder.bitSize(biggestCount);
-        BitSet bits = new BitSet(5, bitSize);
-        BitSet last = new BitSet(6, lastOccurrence);
         int firstBitSize = Decoder.bitSize(lastOccurrence-1); //It should be smaller
-        BitSet first = new BitSet(firstBitSize, firstOccurrence);
-        writer.add(bits);
-        writer.add(last);
-        writer.add(first);
+        writer.add(bitSize, 5);
+        writer.add(lastOccurrence, 6);
+        writer.add(firstOccurrence, firstBitSize);
 
         for(int i = firstOccurrence; i <= lastOccurrence; i++)
-        {
-            BitSet amount = new BitSet(bitSize, depths[i]);
-            writer.add(amount);
-        }
+            writer.add(depths[i], bitSize);
 
         int maxLiteralCount = 257;
         for(int i = firstOccurrence; i <= lastOccurrence; i++)
@@ -118,8 +254,7 @@ class CanonicalHuffmanTree {
                     else
                         break;
                 }
-                BitSet amount = new BitSet(Math.min(Decoder.bitSize(maxLiteralCount), Decoder.bitSize(depths[i])), literalCount);
-                writer.add(amount);
+                writer.add(literalCount, Math.min(Decoder.bitSize(maxLiteralCount), Decoder.bitSize(depths[i])));
                 maxLiteralCount -= literalCount;
                 for (int x = 0; x < literalCount; x++) {
                     if (frequencyArray[i][x].symbol > 0) {
@@ -128,16 +263,13 @@ class CanonicalHuffmanTree {
                     else //Special case for endOfLineSymbol or byte 0
                     {
                         writer.addByte(0);
-                        BitSet isEndOfLineSet = new BitSet(1);
-                        if(frequencyArray[i][x].symbol == 0)
-                            isEndOfLineSet.increase();
-
-                        writer.add(isEndOfLineSet);
+                        writer.add(frequencyArray[i][x].symbol == 0 ? 1 : 0, 1);
                     }
                 }
                 for (int x = literalCount; x < depths[i]; x++) {
-                    writer.add(frequencyArray[i][x].a.bitSet);
-                    writer.add(frequencyArray[i][x].b.bitSet);
+                    HuffmanNode node = frequencyArray[i][x];
+                    writer.add(node.a.code, node.a.depth);
+                    writer.add(node.b.code, node.b.depth);
                 }
             }
         }
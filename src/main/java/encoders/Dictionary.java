@@ -0,0 +1,180 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+The symbols and Huffman codes of an Encoder, trained once and used to encode many batches of fields.
+The dictionary is written once with write and can be read by decoders.Decoder. Encoding a batch only parses the fields
+and writes their codes. The fields are parsed with a SymbolTrie, with the longest symbols (greedy) or with the symbols
+that need the least bits for the codes of the dictionary (optimal). Symbols that are too big for a trie are parsed with
+a PairParser. A Dictionary does not change after training,
+so it can be shared by threads and it can be serialized.
+Symbols that contain the end of a field are removed, every field ends with the end of field symbol (0).
+Every byte gets a symbol, also when it is not in the samples.
+ */
+package encoders;
+
+import io.BitStreamWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Arrays;
+
+public final class Dictionary implements Serializable {
+    private static final long serialVersionUID = 2L;
+    //Longer fields are parsed in parts of this size, so the memory of a parser stays small. A symbol never crosses a part.
+    private static final int PART_SIZE = 1 << 18;
+
+    private final int[] referenceA;
+    private final int[] referenceB;
+    private final long[] codes;
+    private final byte[] codeLengths;
+    private final byte[] tree;
+    private transient volatile SymbolTrie trie;
+    private transient volatile PairParser pairParser;
+
+    private Dictionary(int[] referenceA, int[] referenceB, long[] codes, byte[] codeLengths, byte[] tree)
+    {
+        this.referenceA = referenceA;
+        this.referenceB = referenceB;
+        this.codes = codes;
+        this.codeLengths = codeLengths;
+        this.tree = tree;
+    }
+
+    public static Dictionary train(byte[][] samples) throws IOException {
+        return train(samples, 0);
+    }
+
+    //No Huffman code will be longer than maxCodeLength bits. 0 means no limit.
+    public static Dictionary train(byte[][] samples, int maxCodeLength) throws IOException {
+        Encoder encoder = Encoder.train(withAllBytes(samples), 1);
+
+        //Keep the end of field symbol and the symbols without it.
+        int[] ids = new int[encoder.symbolCount()];
+        int symbolCount = 0;
+        for(int symbol = 0; symbol < encoder.symbolCount(); symbol++)
+            ids[symbol] = symbol == Encoder.endOfLineSymbol || !encoder.hasEndSymbol(symbol) ? symbolCount++ : -1;
+        int[] referenceA = new int[symbolCount];
+        int[] referenceB = new int[symbolCount];
+        for(int symbol = 0; symbol < encoder.symbolCount(); symbol++)
+        {
+            if(ids[symbol] < 0)
+                continue;
+            boolean literal = encoder.referenceB(symbol) < 0;
+            referenceA[ids[symbol]] = literal ? encoder.referenceA(symbol) : ids[encoder.referenceA(symbol)];
+            referenceB[ids[symbol]] = literal ? -1 : ids[encoder.referenceB(symbol)];
+        }
+        encoder = null;
+
+        //Count the symbols like they will be parsed. Every symbol counts at least once, the rows can differ from the samples.
+        HuffmanNode[] nodes = Encoder.huffmanNodes(referenceA, referenceB, symbolCount);
+        for(HuffmanNode node : nodes)
+            node.frequency++;
+        PairParser parser = new PairParser(referenceA, referenceB);
+        int[] symbols = new int[PART_SIZE];
+        for(byte[] sample : samples)
+        {
+            for(int from = 0; from < sample.length; from += PART_SIZE)
+            {
+                int count = parser.parse(sample, from, Math.min(sample.length, from + PART_SIZE), symbols);
+                for(int i = 0; i < count; i++)
+                    nodes[symbols[i]].frequency++;
+            }
+            nodes[Encoder.endOfLineSymbol].frequency++;
+        }
+
+        CanonicalHuffmanTree huffmanTree = new CanonicalHuffmanTree(nodes, maxCodeLength);
+        ByteArrayOutputStream tree = new ByteArrayOutputStream();
+        BitStreamWriter writer = new BitStreamWriter(tree);
+        huffmanTree.writeTree(writer);
+        writer.close();
+
+        return new Dictionary(referenceA, referenceB, huffmanTree.codes, huffmanTree.codeLengths, tree.toByteArray());
+    }
+
+    //Adds a field with the bytes that are not in the samples.
+    private static byte[][] withAllBytes(byte[][] samples)
+    {
+        boolean[] used = new boolean[256];
+        for(byte[] sample : samples)
+            for(byte b : sample)
+                used[b & 0xFF] = true;
+        byte[] missing = new byte[256];
+        int missingCount = 0;
+        for(int i = 0; i < 256; i++)
+            if(!used[i])
+                missing[missingCount++] = (byte)i;
+
+        byte[][] result = Arrays.copyOf(samples, samples.length + 1);
+        result[samples.length] = Arrays.copyOf(missing, missingCount);
+        return result;
+    }
+
+    //Writes the dictionary in the same format as Encoder.encode writes it.
+    public void write(OutputStream output) throws IOException {
+        output.write(tree);
+    }
+
+    //Returns the size of the written dictionary in bytes.
+    public int size()
+    {
+        return tree.length;
+    }
+
+    //Writes the fields and returns their bit positions relative to the position of output at the start,
+    //like Encoder.encode. Every call uses its own parser, so threads can encode at the same time.
+    public long[] encode(byte[][] input, OutputStream output) throws IOException {
+        return encode(input, output, true);
+    }
+
+    //Same as above. Without optimal the longest symbols are used, which is faster but needs a few more bits.
+    //When the symbols are too big for a trie, the merges are repeated and optimal makes no difference.
+    public long[] encode(byte[][] input, OutputStream output, boolean optimal) throws IOException {
+        SymbolTrie trie = trie();
+        SymbolTrie parser = trie == null ? null : trie.copy();
+        PairParser pairs = trie == null ? pairParser.copy() : null;
+        BitStreamWriter writer = new BitStreamWriter(output);
+        long[] rowPositions = new long[input.length];
+        int[] symbols = new int[PART_SIZE];
+        for(int row = 0; row < input.length; row++)
+        {
+            rowPositions[row] = writer.bitLength();
+            byte[] field = input[row];
+            for(int from = 0; from < field.length; from += PART_SIZE)
+            {
+                int to = Math.min(field.length, from + PART_SIZE);
+                int count;
+                if(parser == null)
+                    count = pairs.parse(field, from, to, symbols);
+                else
+                    count = optimal ? parser.parseOptimal(field, from, to, symbols) : parser.parseGreedy(field, from, to, symbols);
+                for(int i = 0; i < count; i++)
+                    writer.add(codes[symbols[i]], codeLengths[symbols[i]]);
+            }
+            writer.add(codes[Encoder.endOfLineSymbol], codeLengths[Encoder.endOfLineSymbol]);
+        }
+        writer.close();
+        return rowPositions;
+    }
+
+    //The trie is not serialized, it is created again when it is needed. Returns null when the trie would be too big,
+    //then pairParser is set instead.
+    private SymbolTrie trie()
+    {
+        SymbolTrie result = trie;
+        if(result == null && pairParser == null) {
+            int[] bits = new int[codeLengths.length];
+            for(int i = 0; i < bits.length; i++)
+                bits[i] = codeLengths[i];
+            result = SymbolTrie.create(referenceA, referenceB, bits);
+            if(result == null)
+                pairParser = new PairParser(referenceA, referenceB);
+            else
+                trie = result;
+        }
+        return result;
+    }
+}
@@ -1,14 +1,18 @@
 package encoders;
 
-import decoders.Decoder;
+import decoders.BlockDirectory;
 import io.BitStreamWriter;
 
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class Encoder {
-    private final static int endOfLineSymbol = 0;
+    final static int endOfLineSymbol = 0;
     private int symbolIndex = 1;
     private int[] symbolReferenceA;
     private int[] symbolReferenceB;
@@ -16,16 +20,32 @@ public class Encoder {
     private int[] symbolSize;
     private boolean[] hasEndSymbol;
 
+    //A symbol takes one position per byte. The first position contains the symbol, so the next symbol starts symbolSize
+    //positions later. The last position of a longer symbol contains -start-2, to find the start of the previous symbol
+    //directly. Other positions are -1.
     private int[] symbols;
 
     private int[] offsetsLeft;
     private int[] offsetsRight;
-    private HashTable fromSymbolToSymbol;
-    private BPlusTreeFSByteArray scoreList;
-    private ArrayList<CNode> touched;
+    private PairTable pairs;
+    //The pairs that can be chosen, in a linked list per count. buckets[count] is the first pair with that count.
+    private int[] buckets;
+    private int maxBucket;
+    private int[] touched;
+    private int touchedCount;
+
+    private int[] blockFirstFields;
+    private int[] blockIndexes;
+    private int blockCount;
 
     private final static int MINIMALCOUNT = 4;
+    private final static int PAIR_COUNT_RANGE = 1 << 22;
+    private final static int MAX_REPARSES = 8;
+    //Another round is only done when the last round saved more than 1/256 of the data.
+    private final static int REPARSE_GAIN_SHIFT = 8;
     private final int MAXSYMBOLCOUNT;
+    private int batchSize = 1;
+    private final int[] skipped = new int[1 << 12];
 
     private Encoder(int maxSymbolCount)
     {
@@ -44,215 +64,635 @@ public class Encoder {
             2. Make it a new symbol
             3. Repeat
          */
-        fromSymbolToSymbol = new HashTable(Math.max(20, Decoder.bitSize(symbols.length)-4));
-        scoreList = new BPlusTreeFSByteArray(12);
-        touched = new ArrayList<>();
+        pairs = new PairTable();
+        buckets = new int[1 << 10];
+        Arrays.fill(buckets, -1);
+        maxBucket = 0;
+        touched = new int[1 << 10];
+        touchedCount = 0;
         this.symbols = symbols;
 
         offsetsLeft = new int[symbols.length];
         offsetsRight = new int[symbols.length];
 
-        for (int i = 0; i < offsetsLeft.length; i++) {
-            offsetsLeft[i] = -1;
-            offsetsRight[i] = -1;
-        }
-
-        long lastSymbol = -1;
-        for (int i = 0; i < symbols.length - 1; i++) {
-            symbolCount[symbols[i]]++;
-            long currentSymbol = ((long) symbols[i] << 32) + symbols[i + 1];
-
-            addSymbol(currentSymbol, i, currentSymbol != lastSymbol);
-
-            lastSymbol = (currentSymbol == lastSymbol) ? -1 : currentSymbol;
-        }
-        symbolCount[symbols[symbols.length - 1]]++;
+        countPairs();
 
+        int[] winners = new int[batchSize];
         while (true) {
             processTouched();
 
-            if (scoreList.size() < 1 || symbolIndex >= MAXSYMBOLCOUNT) {
+            int winnerCount = pollBatch(winners, Math.min(batchSize, MAXSYMBOLCOUNT - symbolIndex));
+            if (winnerCount == 0) {
                 System.out.println(" done.");
                 System.out.println("Number of symbols:\t" + symbolIndex);
                 break;
             }
 
-            byte[] lastElement = scoreList.removeLast();
-            long key = BPlusTreeFSByteArray.readLong(lastElement, 4);
-
-            CNode winner = (CNode)fromSymbolToSymbol.get(key);
-
-            int symbolA = (int)(winner.hashValue >> 32);
-            int symbolB = (int)winner.hashValue;
-            symbolReferenceA[symbolIndex] = symbolA;
-            symbolReferenceB[symbolIndex] = symbolB;
-            symbolSize[symbolIndex] = symbolSize[symbolA] + symbolSize[symbolB];
-            hasEndSymbol[symbolIndex] = hasEndSymbol[symbolB];
-            int newSymbol = symbolIndex++;
-            fromSymbolToSymbol.delete(winner);
+            for (int i = 0; i < winnerCount; i++)
+                merge(winners[i]);
+        }
 
-            int nextOffset = symbolSize[symbolA];
+        offsetsLeft = null;
+        offsetsRight = null;
+        pairs = null;
+        buckets = null;
+        touched = null;
+    }
 
-            int index = winner.firstIndex;
-            long lastTriggerSymbol = -1;
-            while (index > -1) {
-                int futureIndex = offsetsRight[index];
-                if (symbols[index] > -1) {
+    private void writeHuffman(BitStreamWriter treeWriter, BitStreamWriter dataWriter, long[] rowPositions, int maxCodeLength, int blockSize) throws IOException {
+        HuffmanNode[] nodes = huffmanNodes();
 
-                    int previousIndex = index;
-                    while(--previousIndex > -1 && symbols[previousIndex] < 0);
+        //Register the counts.
+        for (int symbol : symbols)
+            if (symbol > -1)
+                nodes[symbol].frequency++;
 
-                    if (previousIndex > -1) {
-                        lastSymbol = (((long) symbols[previousIndex]) << 32) + symbols[index];
-                        removeSymbol(lastSymbol, previousIndex);
-                    }
+        //Lets make a canonical Huffman tree.
+        CanonicalHuffmanTree tree = new CanonicalHuffmanTree(nodes, maxCodeLength);
 
-                    int nextIndex = index + nextOffset;
+        //And lastly write the data.
+        //First the tree.
+        tree.writeTree(treeWriter);
 
-                    int nextNextIndex = nextIndex;
-                    while(++nextNextIndex < symbols.length && symbols[nextNextIndex] < 0);
+        long dataWriterStart = dataWriter.length();
+        long dataWriterStartBits = dataWriter.bitLength();
+        if(blockSize > 0)
+            writeBlocks(tree, dataWriter, rowPositions, blockSize, dataWriterStartBits);
+        else {
+            int rowPositionIndex = 0;
+            rowPositions[rowPositionIndex++] = 0;
+            //And now the nodes.
+            long[] codes = tree.codes;
+            byte[] codeLengths = tree.codeLengths;
+            for (int symbol : symbols)
+                if (symbol > -1) {
+                    dataWriter.add(codes[symbol], codeLengths[symbol]);
+                    if (hasEndSymbol[symbol] && rowPositions.length > rowPositionIndex)
+                        rowPositions[rowPositionIndex++] = dataWriter.bitLength() - dataWriterStartBits;
+                }
+        }
 
-                    if (nextNextIndex < symbols.length) {
-                        lastSymbol = (((long) symbolB) << 32) + symbols[nextNextIndex];
+        System.out.println("Size of data:\t\t" + (dataWriter.length() - dataWriterStart) + " bytes");
+    }
 
-                        if (lastSymbol != key)
-                            removeSymbol(lastSymbol, nextIndex);
-                    }
+    //Parses every field again with the fewest bits for the current Huffman codes and makes new codes for the new counts.
+    //This is repeated while the data gets clearly smaller. The symbols stay the same, only the way the fields are split into
+    //symbols changes, see SymbolTrie. When the symbols are too big for a trie nothing changes.
+    private void reparse(byte[][] input, int maxCodeLength)
+    {
+        int[] bits = new int[symbolIndex];
+        int[] newBits = new int[symbolIndex];
+        long size = dataBits(symbols, bits, maxCodeLength);
+        System.out.println("Merged data:\t\t" + ((size + 7) >> 3) + " bytes");
+        //The trie reads the code lengths from bits, which is updated after every round.
+        SymbolTrie trie = SymbolTrie.create(Arrays.copyOf(symbolReferenceA, symbolIndex), Arrays.copyOf(symbolReferenceB, symbolIndex), bits);
+        if(trie == null) {
+            //Very long or repetitive symbols, the parse of the merges is kept.
+            System.out.println("Not reparsed, the symbols are too big for a trie.");
+            return;
+        }
 
-                    winner.remove(index);
-                    symbolCount[symbolA]--;
-                    symbolCount[symbolB]--;
-                    symbolCount[newSymbol]++;
-                    symbols[index] = newSymbol;
-                    symbols[nextIndex] = -1;
+        int maxLength = 0;
+        for(byte[] field : input)
+            maxLength = Math.max(maxLength, field.length);
+        int[] fieldSymbols = new int[maxLength + 1];
+        int[] parsed = new int[symbols.length];
+        for(int round = 0; round < MAX_REPARSES; round++)
+        {
+            int index = 0;
+            for(byte[] field : input)
+            {
+                int count = trie.parseOptimal(field, 0, field.length, true, fieldSymbols);
+                for(int i = 0; i < count; i++)
+                {
+                    int symbol = fieldSymbols[i];
+                    parsed[index] = symbol;
+                    Arrays.fill(parsed, index + 1, index + symbolSize[symbol], -1);
+                    index += symbolSize[symbol];
+                }
+            }
 
-                    if (previousIndex > -1) {
-                        int prevSymbol = symbols[previousIndex];
-                        long previousSymbol = (((long) symbols[previousIndex]) << 32) + newSymbol;
-                        if(!hasEndSymbol[prevSymbol] && symbolCount[prevSymbol] >= MINIMALCOUNT)
-                            addSymbol(previousSymbol, previousIndex, previousSymbol != lastTriggerSymbol);
+            long newSize = dataBits(parsed, newBits, maxCodeLength);
+            System.out.println("Reparsed data:\t\t" + ((newSize + 7) >> 3) + " bytes");
+            if(newSize >= size)
+                break;
+            int[] temp = symbols;
+            symbols = parsed;
+            parsed = temp;
+            System.arraycopy(newBits, 0, bits, 0, symbolIndex);
+            long gain = size - newSize;
+            size = newSize;
+            if(gain <= size >> REPARSE_GAIN_SHIFT)
+                break;
+        }
+    }
 
-                        lastTriggerSymbol = (previousSymbol != lastTriggerSymbol && symbols[previousIndex] == newSymbol) ? previousSymbol : -1;
-                    }
+    //Returns the number of bits of the data with the Huffman codes for the counts of the symbols. The code lengths are
+    //stored in bits.
+    private long dataBits(int[] symbols, int[] bits, int maxCodeLength)
+    {
+        int[] counts = new int[symbolIndex];
+        for (int symbol : symbols)
+            if (symbol > -1)
+                counts[symbol]++;
+        HuffmanNode[] nodes = huffmanNodes();
+        for(int i = 0; i < symbolIndex; i++)
+            nodes[i].frequency += counts[i];
+        new CanonicalHuffmanTree(nodes, maxCodeLength);
 
-                    if (nextNextIndex < symbols.length) {
-                        int nextSymbol = symbols[nextNextIndex];
+        long result = 0;
+        for(int i = 0; i < symbolIndex; i++)
+        {
+            bits[i] = nodes[i].depth;
+            result += (long)counts[i] * bits[i];
+        }
+        return result;
+    }
 
-                        if(!hasEndSymbol[newSymbol] && symbolCount[nextSymbol] >= MINIMALCOUNT)
-                            addSymbol((((long)newSymbol) << 32) + nextSymbol, index, true);
-                    }
+    //Writes the fields in blocks of blockSize bytes. The first block starts at a multiple of blockSize in the stream.
+    //A field that does not fit in the rest of the block starts a new block. A field that is bigger than a block
+    //gets a block of a multiple of blockSize. Every block starts with the number of its first field (32 bits).
+    private void writeBlocks(CanonicalHuffmanTree tree, BitStreamWriter dataWriter, long[] rowPositions, int blockSize, long dataWriterStartBits) throws IOException {
+        long blockBits = blockSize * 8L;
+        blockFirstFields = new int[rowPositions.length];
+        blockIndexes = new int[rowPositions.length];
+        blockCount = 0;
+
+        long blockEnd = dataWriter.bitLength();
+        int field = 0;
+        int index = 0;
+        while(field < rowPositions.length)
+        {
+            long fieldBits = 0;
+            int end = index;
+            while(true)
+            {
+                int symbol = symbols[end++];
+                if(symbol > -1) {
+                    fieldBits += tree.codeLengths[symbol];
+                    if (hasEndSymbol[symbol])
+                        break;
                 }
+            }
 
-                index = futureIndex;
+            if(blockCount == 0 || dataWriter.bitLength() + fieldBits > blockEnd)
+            {
+                long blockStart = (dataWriter.bitLength() + blockBits - 1) / blockBits * blockBits;
+                writeZeros(dataWriter, blockStart - dataWriter.bitLength());
+                blockEnd = blockStart + (32 + fieldBits + blockBits - 1) / blockBits * blockBits;
+                blockFirstFields[blockCount] = field;
+                blockIndexes[blockCount++] = (int)(blockStart / blockBits);
+                dataWriter.add(field, 32);
             }
 
+            rowPositions[field++] = dataWriter.bitLength() - dataWriterStartBits;
+            for(int i = index; i < end; i++)
+                if(symbols[i] > -1)
+                    dataWriter.add(tree.codes[symbols[i]], tree.codeLengths[symbols[i]]);
+            index = end;
         }
+        System.out.println("Number of blocks:\t" + blockCount);
+    }
 
-        offsetsLeft = null;
-        offsetsRight = null;
-        fromSymbolToSymbol = null;
-        scoreList = null;
-        touched = null;
+    private static void writeZeros(BitStreamWriter writer, long length) throws IOException {
+        while(length > 0)
+        {
+            int bits = (int)Math.min(length, 64);
+            writer.add(0, bits);
+            length -= bits;
+        }
     }
 
-    private void writeHuffman(BitStreamWriter treeWriter, BitStreamWriter dataWriter, long[] rowPositions) throws IOException {
-        //Convert the symbols and their parents to Huffman nodes.
-        HuffmanNode[] nodes = new HuffmanNode[symbolIndex];
-        for(int i = 0; i < symbolIndex; i++)
-            nodes[i] = (symbolReferenceB[i] < 0 ? new HuffmanNode(symbolReferenceA[i], null, null) : new HuffmanNode(-2, nodes[symbolReferenceA[i]], nodes[symbolReferenceB[i]]));
+    //The block directory contains the first field and the position (divided by the block size) of every block.
+    //It is followed by the number of fields, the block size, the size of the directory and a magic number.
+    private void writeBlockDirectory(OutputStream output, int fieldCount, int blockSize) throws IOException {
+        DataOutputStream data = new DataOutputStream(output);
+        for(int i = 0; i < blockCount; i++) {
+            data.writeInt(blockFirstFields[i]);
+            data.writeInt(blockIndexes[i]);
+        }
+        data.writeLong(fieldCount);
+        data.writeLong(blockSize);
+        data.writeLong(8L * blockCount);
+        data.writeLong(BlockDirectory.MAGIC);
+        data.flush();
+        System.out.println("Size of directory:\t" + (8L * blockCount + 32) + " bytes");
+    }
 
-        //Register the counts.
-        for (int symbol : symbols)
-            if (symbol > -1)
-                nodes[symbol].frequency++;
+    //Replaces every occurrence of the pair by a new symbol.
+    private void merge(int winner)
+    {
+        long lastSymbol;
+        long key = pairs.pairs[winner];
+        int symbolA = (int)(key >> 32);
+        int symbolB = (int)key;
+        symbolReferenceA[symbolIndex] = symbolA;
+        symbolReferenceB[symbolIndex] = symbolB;
+        symbolSize[symbolIndex] = symbolSize[symbolA] + symbolSize[symbolB];
+        hasEndSymbol[symbolIndex] = hasEndSymbol[symbolB];
+        int newSymbol = symbolIndex++;
+        int index = pairs.firstIndex[winner];
+        pairs.delete(winner);
+
+        int nextOffset = symbolSize[symbolA];
+
+        long lastTriggerSymbol = -1;
+        while (index > -1) {
+            int futureIndex = offsetsRight[index];
+            if (symbols[index] > -1) {
+
+                int previousIndex = index - 1;
+                if (previousIndex > -1 && symbols[previousIndex] < 0)
+                    previousIndex = -symbols[previousIndex] - 2;
+
+                if (previousIndex > -1) {
+                    lastSymbol = (((long) symbols[previousIndex]) << 32) + symbols[index];
+                    removeSymbol(lastSymbol, previousIndex);
+                }
 
-        //Lets make a canonical Huffman tree.
-        CanonicalHuffmanTree tree = new CanonicalHuffmanTree(nodes);
+                int nextIndex = index + nextOffset;
 
-        //And lastly write the data.
-        //First the tree.
-        tree.writeTree(treeWriter);
+                int nextNextIndex = nextIndex + symbolSize[symbolB];
 
-        long dataWriterStart = dataWriter.length();
-        int rowPositionIndex = 0;
-        rowPositions[rowPositionIndex++] = 0;
-        //And now the nodes.
-        for (int symbol : symbols)
-            if (symbol > -1) {
-                dataWriter.add(nodes[symbol].bitSet);
-                if(hasEndSymbol[symbol] && rowPositions.length > rowPositionIndex)
-                    rowPositions[rowPositionIndex++] = dataWriter.bitLength();
+                if (nextNextIndex < symbols.length) {
+                    lastSymbol = (((long) symbolB) << 32) + symbols[nextNextIndex];
+
+                    if (lastSymbol != key)
+                        removeSymbol(lastSymbol, nextIndex);
+                }
+
+                //The positions of the winner are not linked anymore, the list is only followed using futureIndex.
+                offsetsLeft[index] = -1;
+                offsetsRight[index] = -1;
+                symbolCount[symbolA]--;
+                symbolCount[symbolB]--;
+                symbolCount[newSymbol]++;
+                symbols[index] = newSymbol;
+                symbols[nextIndex] = -1;
+                symbols[nextNextIndex - 1] = -index - 2;
+
+                if (previousIndex > -1) {
+                    int prevSymbol = symbols[previousIndex];
+                    long previousSymbol = (((long) symbols[previousIndex]) << 32) + newSymbol;
+                    if(!hasEndSymbol[prevSymbol] && symbolCount[prevSymbol] >= MINIMALCOUNT)
+                        addSymbol(previousSymbol, previousIndex, previousSymbol != lastTriggerSymbol);
+
+                    lastTriggerSymbol = (previousSymbol != lastTriggerSymbol && symbols[previousIndex] == newSymbol) ? previousSymbol : -1;
+                }
+
+                if (nextNextIndex < symbols.length) {
+                    int nextSymbol = symbols[nextNextIndex];
+
+                    if(!hasEndSymbol[newSymbol] && symbolCount[nextSymbol] >= MINIMALCOUNT)
+                        addSymbol((((long)newSymbol) << 32) + nextSymbol, index, true);
+                }
             }
 
-        System.out.println("Size of data:\t\t" + (dataWriter.length() - dataWriterStart) + " bytes");
+            index = futureIndex;
+        }
     }
 
-    private void addSymbol(long symbol, int index, boolean countMe)
+    //Takes up to 'max' pairs with the highest counts, skipping pairs that share a symbol with a pair that is already taken.
+    //Pairs without shared symbols never overlap, so they can be merged after each other without counting in between.
+    //The skipped pairs are put back in the same order.
+    private int pollBatch(int[] winners, int max)
     {
-        CNode node = (CNode)fromSymbolToSymbol.get(symbol);
-        if(node == null)
+        int count = 0;
+        int skippedCount = 0;
+        while(count < max && skippedCount < skipped.length)
         {
-            node = new CNode(symbol, index);
-            fromSymbolToSymbol.add(node);
-            touched.add(node);
+            int node = pollMax();
+            if(node < 0)
+                break;
+            long pair = pairs.pairs[node];
+            boolean shared = false;
+            for(int i = 0; i < count && !shared; i++)
+            {
+                long other = pairs.pairs[winners[i]];
+                shared = (int)(pair >> 32) == (int)(other >> 32) || (int)(pair >> 32) == (int)other
+                        || (int)pair == (int)(other >> 32) || (int)pair == (int)other;
+            }
+            if(shared)
+                skipped[skippedCount++] = node;
+            else
+                winners[count++] = node;
         }
-        else
+        while(skippedCount > 0)
+            link(skipped[--skippedCount]);
+        return count;
+    }
+
+    //Counts all the pairs in ranges of the symbol array on multiple cores. The ranges are added to the pair table
+    //in order and every range adds its pairs in order of their first position, so the result is the same as when
+    //the pairs are counted from start to end.
+    private void countPairs()
+    {
+        ArrayList<ForkJoinTask<PairTable>> tasks = new ArrayList<>();
+        ArrayList<int[]> rangeCounts = new ArrayList<>();
+        int runBefore = 0;
+        for(int from = 0; from < symbols.length; from += PAIR_COUNT_RANGE)
+        {
+            int start = from;
+            int end = (int)Math.min(symbols.length, (long)from + PAIR_COUNT_RANGE);
+            runBefore = runBefore(from, runBefore);
+            boolean oddRun = (runBefore & 1) == 1;
+            int[] counts = new int[symbolIndex];
+            rangeCounts.add(counts);
+            tasks.add(ForkJoinPool.commonPool().submit(() -> countPairs(start, end, counts, oddRun)));
+        }
+
+        for(int range = 0; range < tasks.size(); range++)
         {
-            if(!node.touched) {
-                touched.add(node);
-                node.touched = true;
+            PairTable table = tasks.get(range).join();
+            int[] counts = rangeCounts.get(range);
+            for(int i = 0; i < counts.length; i++)
+                symbolCount[i] += counts[i];
+
+            for(int local = 0; local < table.size(); local++)
+            {
+                int node = pairs.get(table.pairs[local]);
+                if(node < 0)
+                    node = pairs.add(table.pairs[local]);
+                touch(node);
+                int lastIndex = pairs.lastIndex[node];
+                int firstIndex = table.firstIndex[local];
+                if(lastIndex == -1)
+                    pairs.firstIndex[node] = firstIndex;
+                else {
+                    offsetsRight[lastIndex] = firstIndex;
+                    offsetsLeft[firstIndex] = lastIndex;
+                }
+                pairs.lastIndex[node] = table.lastIndex[local];
+                pairs.change[node] += table.change[local];
             }
-            node.add(index);
         }
+    }
+
+    //Returns the number of pairs right before 'from' that are the same as the pair at 'from'. The scan stops at the
+    //start of the previous range, where the run continues with the result for that range (previousRun), so every
+    //position is scanned at most once, also in a long run of one symbol.
+    private int runBefore(int from, int previousRun)
+    {
+        if(from == 0 || from >= symbols.length - 1)
+            return 0;
+        long firstSymbol = ((long) symbols[from] << 32) + symbols[from + 1];
+        int previousFrom = from - PAIR_COUNT_RANGE;
+        int runStart = from;
+        while(runStart > previousFrom && ((long) symbols[runStart - 1] << 32) + symbols[runStart] == firstSymbol)
+            runStart--;
+        return runStart == previousFrom ? from - previousFrom + previousRun : from - runStart;
+    }
+
+    //Counts the symbols from 'from' to 'to' and the pairs that start there. Returns the pairs in a new table, where the
+    //ids are in order of the first position. The positions are linked in offsetsLeft and offsetsRight, like addSymbol does.
+    //oddRun tells if the run of pairs that are the same as the first pair, right before 'from', has an odd length.
+    private PairTable countPairs(int from, int to, int[] counts, boolean oddRun)
+    {
+        Arrays.fill(offsetsLeft, from, to, -1);
+        Arrays.fill(offsetsRight, from, to, -1);
+        PairTable table = new PairTable();
+
+        //In a run of the same pair only every other pair is counted, so the first pair is counted when the run
+        //before it has an even length.
+        long lastSymbol = -1;
+        if(oddRun)
+            lastSymbol = ((long) symbols[from] << 32) + symbols[from + 1];
+
+        for (int i = from; i < to; i++) {
+            counts[symbols[i]]++;
+            if(i == symbols.length - 1)
+                break;
+            long currentSymbol = ((long) symbols[i] << 32) + symbols[i + 1];
+
+            //A field ends with the endOfLine symbol, so it may not be the start of a pair.
+            if(!hasEndSymbol[symbols[i]]) {
+                int node = table.get(currentSymbol);
+                if(node < 0)
+                    node = table.add(currentSymbol);
+                addIndex(table, node, i);
+                if(currentSymbol != lastSymbol)
+                    table.change[node]++;
+            }
+
+            lastSymbol = (currentSymbol == lastSymbol) ? -1 : currentSymbol;
+        }
+        return table;
+    }
+
+    private void addSymbol(long symbol, int index, boolean countMe)
+    {
+        int node = pairs.get(symbol);
+        if(node < 0)
+            node = pairs.add(symbol);
+        touch(node);
+        addIndex(pairs, node, index);
         if(countMe) {
-            node.change++;
+            pairs.change[node]++;
         }
     }
 
     private void removeSymbol(long symbol, int index)
     {
-        CNode node = (CNode) fromSymbolToSymbol.get(symbol);
-        if(node != null) {
-            if(!node.touched) {
-                touched.add(node);
-                node.touched = true;
-            }
-            node.change--;
-            node.remove(index);
+        int node = pairs.get(symbol);
+        if(node >= 0) {
+            touch(node);
+            pairs.change[node]--;
+            removeIndex(node, index);
+        }
+    }
+
+    private void touch(int node)
+    {
+        if(!pairs.touched[node]) {
+            if(touchedCount == touched.length)
+                touched = Arrays.copyOf(touched, touchedCount << 1);
+            touched[touchedCount++] = node;
+            pairs.touched[node] = true;
         }
     }
 
     private void processTouched()
     {
-        byte[] key = new byte[12];
-        for(CNode node : touched)
+        for(int i = 0; i < touchedCount; i++)
         {
-            BPlusTreeFSByteArray.write(key, node.count, 0);
-            BPlusTreeFSByteArray.write(key, node.hashValue, 4);
-
-            scoreList.delete(key);
+            int node = touched[i];
+            //Only pairs with at least MINIMALCOUNT occurrences are in a bucket.
+            if(pairs.count[node] >= MINIMALCOUNT)
+                unlink(node);
 
-            node.count += node.change;
-            node.change = 0;
-            node.touched = false;
+            pairs.count[node] += pairs.change[node];
+            pairs.change[node] = 0;
+            pairs.touched[node] = false;
 
-            if(node.count >= MINIMALCOUNT) {
-                BPlusTreeFSByteArray.write(key, node.count, 0);
-                scoreList.insert(key);
-            }
+            if(pairs.count[node] >= MINIMALCOUNT)
+                link(node);
             else
             {
-                node.removeAll();
-                fromSymbolToSymbol.delete(node);
+                removeAllIndexes(node);
+                pairs.delete(node);
             }
         }
-        touched.clear();
+        touchedCount = 0;
+    }
+
+    private void link(int node)
+    {
+        int count = pairs.count[node];
+        if(count >= buckets.length) {
+            int length = buckets.length;
+            buckets = Arrays.copyOf(buckets, Math.max(count + 1, length << 1));
+            Arrays.fill(buckets, length, buckets.length, -1);
+        }
+        int next = buckets[count];
+        pairs.previous[node] = -1;
+        pairs.next[node] = next;
+        if(next >= 0)
+            pairs.previous[next] = node;
+        buckets[count] = node;
+        if(count > maxBucket)
+            maxBucket = count;
+    }
+
+    private void unlink(int node)
+    {
+        int previous = pairs.previous[node];
+        int next = pairs.next[node];
+        if(previous >= 0)
+            pairs.next[previous] = next;
+        else
+            buckets[pairs.count[node]] = next;
+        if(next >= 0)
+            pairs.previous[next] = previous;
+        pairs.previous[node] = -1;
+        pairs.next[node] = -1;
+    }
+
+    //Removes and returns a pair with the highest count, the one that was linked last. Returns -1 when there are no pairs.
+    private int pollMax()
+    {
+        while(maxBucket > 0 && buckets[maxBucket] < 0)
+            maxBucket--;
+        int node = buckets[maxBucket];
+        if(node >= 0)
+            unlink(node);
+        return node;
+    }
+
+    //The positions of a pair are a linked list in offsetsLeft and offsetsRight.
+    private void addIndex(PairTable table, int node, int index)
+    {
+        int lastIndex = table.lastIndex[node];
+        if(lastIndex == -1)
+            table.firstIndex[node] = index;
+        else {
+            offsetsRight[lastIndex] = index;
+            offsetsLeft[index] = lastIndex;
+        }
+        table.lastIndex[node] = index;
+    }
+
+    private void removeIndex(int node, int index)
+    {
+        int left = offsetsLeft[index];
+        int right = offsetsRight[index];
+
+        if(left > -1)
+            offsetsRight[left] = right;
+        if(right > -1)
+            offsetsLeft[right] = left;
+
+        offsetsLeft[index] = -1;
+        offsetsRight[index] = -1;
+
+        if(index == pairs.firstIndex[node])
+            pairs.firstIndex[node] = right;
+
+        if(index == pairs.lastIndex[node])
+            pairs.lastIndex[node] = left;
+    }
+
+    private void removeAllIndexes(int node)
+    {
+        int index = pairs.firstIndex[node];
+        while(index > -1)
+        {
+            int futureIndex = offsetsRight[index];
+
+            offsetsLeft[index] = -1;
+            offsetsRight[index] = -1;
+
+            index = futureIndex;
+        }
+
+        pairs.firstIndex[node] = -1;
+        pairs.lastIndex[node] = -1;
     }
 
     //Returns the bit positions of the encoded fields relative to the position of dataWriter at the start.
     public static long[] encode(byte[][] input, OutputStream dictionaryWriter, OutputStream dataWriter) throws IOException {
+        return encode(input, dictionaryWriter, dataWriter, 0);
+    }
+
+    //Same as above, but no Huffman code will be longer than maxCodeLength bits. 0 means no limit. When there are more
+    //symbols than codes of that length, the shortest length that fits them is used.
+    //Limiting the code length costs a little compression but keeps the decoding tables small and shallow.
+    public static long[] encode(byte[][] input, OutputStream dictionaryWriter, OutputStream dataWriter, int maxCodeLength) throws IOException {
+        return encode(input, dictionaryWriter, dataWriter, maxCodeLength, 0, 1, false);
+    }
+
+    //Same as above, but after the symbols are found the fields are parsed again with the fewest bits for the Huffman
+    //codes, until the data does not get smaller. This takes more time and memory and gives a little smaller result.
+    public static long[] encodeOptimal(byte[][] input, OutputStream dictionaryWriter, OutputStream dataWriter, int maxCodeLength) throws IOException {
+        return encode(input, dictionaryWriter, dataWriter, maxCodeLength, 0, 1, true);
+    }
+
+    //Stores the fields in blocks of blockSize bytes, followed by a block directory. A field can be read by reading
+    //only the dictionary and one block. See writeBlocks.
+    public static long[] encodeBlocks(byte[][] input, OutputStream dictionaryWriter, OutputStream dataWriter, int maxCodeLength, int blockSize) throws IOException {
+        if(blockSize < 8)
+            throw new IllegalArgumentException("The block size must be at least 8 bytes.");
+        return encode(input, dictionaryWriter, dataWriter, maxCodeLength, blockSize, 1, false);
+    }
+
+    //Merges up to batchSize pairs that do not share a symbol before counting again. This is faster, but the pairs
+    //are chosen on counts that are a little out of date, so the compression is a little worse. 1 is the normal encoder.
+    public static long[] encodeBatched(byte[][] input, OutputStream dictionaryWriter, OutputStream dataWriter, int maxCodeLength, int batchSize) throws IOException {
+        if(batchSize < 1)
+            throw new IllegalArgumentException("The batch size must be at least 1.");
+        return encode(input, dictionaryWriter, dataWriter, maxCodeLength, 0, batchSize, false);
+    }
+
+    //Only writes the fields, with the symbols and codes of a dictionary that is trained before. See Dictionary.
+    public static long[] encode(Dictionary dictionary, byte[][] input, OutputStream dataWriter) throws IOException {
+        return dictionary.encode(input, dataWriter);
+    }
+
+    private static long[] encode(byte[][] input, OutputStream dictionaryWriter, OutputStream dataWriter, int maxCodeLength, int blockSize, int batchSize, boolean optimal) throws IOException {
+        Encoder result = train(input, batchSize);
+        //Checked once here, so the trees of the reparse do not warn again.
+        maxCodeLength = CanonicalHuffmanTree.feasibleLength(result.symbolCount(), maxCodeLength);
+        if(optimal)
+            result.reparse(input, maxCodeLength);
+
+        BitStreamWriter treeWriter = new BitStreamWriter(dictionaryWriter);
+        BitStreamWriter fieldWriter = dictionaryWriter == dataWriter ? treeWriter : new BitStreamWriter(dataWriter);
+
+        long[] rowPositions = new long[input.length];
+        result.writeHuffman(treeWriter, fieldWriter, rowPositions, maxCodeLength, blockSize);
+
+        treeWriter.close();
+        fieldWriter.close();
+        if(blockSize > 0)
+            result.writeBlockDirectory(dataWriter, input.length, blockSize);
+
+        return rowPositions;
+    }
+
+    //Finds the symbols of the input. The symbol array of the input is kept for writeHuffman.
+    static Encoder train(byte[][] input, int batchSize) {
         int totalSize = getTotalArrayLength(input) + input.length;
         Encoder result = new Encoder(totalSize >> 2);
+        result.batchSize = batchSize;
 
         int[] references = new int[256];
         int[] symbols = new int[totalSize];
@@ -277,17 +717,43 @@ public class Encoder {
         result.symbolSize[endOfLineSymbol] = 1;
         result.hasEndSymbol[endOfLineSymbol] = true;
         result.symbolize(symbols);
+        return result;
+    }
 
-        BitStreamWriter treeWriter = new BitStreamWriter(dictionaryWriter);
-        BitStreamWriter fieldWriter = dictionaryWriter == dataWriter ? treeWriter : new BitStreamWriter(dataWriter);
+    int symbolCount()
+    {
+        return symbolIndex;
+    }
 
-        long[] rowPositions = new long[input.length];
-        result.writeHuffman(treeWriter, fieldWriter, rowPositions);
+    //The first symbol of a pair, or the byte of a literal.
+    int referenceA(int symbol)
+    {
+        return symbolReferenceA[symbol];
+    }
 
-        treeWriter.close();
-        fieldWriter.close();
+    //The second symbol of a pair, or -1 for a literal.
+    int referenceB(int symbol)
+    {
+        return symbolReferenceB[symbol];
+    }
 
-        return rowPositions;
+    boolean hasEndSymbol(int symbol)
+    {
+        return hasEndSymbol[symbol];
+    }
+
+    //Converts the symbols and their parents to Huffman nodes, without the counts of the data.
+    HuffmanNode[] huffmanNodes()
+    {
+        return huffmanNodes(symbolReferenceA, symbolReferenceB, symbolIndex);
+    }
+
+    static HuffmanNode[] huffmanNodes(int[] referenceA, int[] referenceB, int symbolCount)
+    {
+        HuffmanNode[] nodes = new HuffmanNode[symbolCount];
+        for(int i = 0; i < symbolCount; i++)
+            nodes[i] = (referenceB[i] < 0 ? new HuffmanNode(referenceA[i], null, null) : new HuffmanNode(-2, nodes[referenceA[i]], nodes[referenceB[i]]));
+        return nodes;
     }
 
     private static int getTotalArrayLength(byte[][] array)
@@ -298,78 +764,4 @@ public class Encoder {
 
         return result;
     }
-
-    class CNode extends HashableLong {
-        int count;
-        int change;
-        boolean touched;
-        int firstIndex;
-        private int lastIndex;
-
-        CNode(long symbol, int index) {
-            hashValue = symbol;
-            count = 0;
-            change = 0;
-            touched = true;
-            firstIndex = index;
-            lastIndex = index;
-        }
-
-        void add(int index) {
-            if(lastIndex == -1)
-            {
-                firstIndex = index;
-            }
-            else {
-                offsetsRight[lastIndex] = index;
-                offsetsLeft[index] = lastIndex;
-            }
-
-            lastIndex = index;
-        }
-
-        void removeAll()
-        {
-            int index = firstIndex;
-            while(index > -1)
-            {
-                int futureIndex = offsetsRight[index];
-
-                offsetsLeft[index] = -1;
-                offsetsRight[index] = -1;
-
-                index = futureIndex;
-            }
-
-            firstIndex = -1;
-            lastIndex = -1;
-        }
-
-
-        void remove(int index)
-        {
-            int left = offsetsLeft[index];
-            int right = offsetsRight[index];
-
-            if(left > -1)
-                offsetsRight[left] = right;
-            if(right > -1)
-                offsetsLeft[right] = left;
-
-            offsetsLeft[index] = -1;
-            offsetsRight[index] = -1;
-
-            if(index == firstIndex)
-                firstIndex = right;
-
-            if(index == lastIndex)
-                lastIndex = left;
-        }
-
-        @Override
-        public String toString()
-        {
-            return Long.toString(hashValue);
-        }
-    }
 }
@@ -0,0 +1,78 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Writes the bit positions of the fields as an Elias-Fano coded index, followed by a trailer.
+It is written after the data, so decoders.FieldIndex can find it from the end of the file.
+
+The positions are split in lower bits, stored as fixed size numbers, and upper bits, stored as a bit array
+where field i sets bit (upper bits of position i) + i. Every 64th set bit gets a sample of its position,
+so the position of any field is found without scanning the whole bit array.
+This costs around 3 + log2(average field size in bits) bits per field.
+
+Layout, all numbers are 8 byte big endian:
+- field count, number of lower bits, number of upper words, number of samples
+- lower words, upper words, samples
+- trailer: the size of everything above in bytes, magic number
+ */
+package encoders;
+
+import decoders.Decoder;
+import decoders.FieldIndex;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+public class FieldIndexWriter {
+
+    //Returns the number of bytes written.
+    public static long write(long[] positions, OutputStream output) throws IOException {
+        int count = positions.length;
+        long last = count == 0 ? 0 : positions[count - 1];
+        int lowerBits = count == 0 ? 0 : Math.max(0, Decoder.bitSize(last / count) - 1);
+
+        long[] lower = new long[(int)(((long)count * lowerBits + 63) >>> 6)];
+        long[] upper = new long[(int)((count + (last >>> lowerBits) + 64) >>> 6)];
+        long[] samples = new long[(count + 63) >>> 6];
+
+        long lowerMask = (1L << lowerBits) - 1;
+        for(int i = 0; i < count; i++)
+        {
+            if(lowerBits > 0) {
+                long bit = (long) i * lowerBits;
+                long value = positions[i] & lowerMask;
+                int word = (int) (bit >>> 6);
+                int shift = (int) (bit & 63);
+                lower[word] |= value << shift;
+                if (shift + lowerBits > 64)
+                    lower[word + 1] |= value >>> (64 - shift);
+            }
+
+            long bit = (positions[i] >>> lowerBits) + i;
+            upper[(int)(bit >>> 6)] |= 1L << bit;
+            if((i & 63) == 0)
+                samples[i >>> 6] = bit;
+        }
+
+        DataOutputStream data = new DataOutputStream(output);
+        data.writeLong(count);
+        data.writeLong(lowerBits);
+        data.writeLong(upper.length);
+        data.writeLong(samples.length);
+        for(long value : lower)
+            data.writeLong(value);
+        for(long value : upper)
+            data.writeLong(value);
+        for(long value : samples)
+            data.writeLong(value);
+        long size = 8L * (4 + lower.length + upper.length + samples.length);
+        data.writeLong(size);
+        data.writeLong(FieldIndex.MAGIC);
+        data.flush();
+
+        System.out.println("Size of index:\t\t" + (size + 16) + " bytes");
+        return size + 16;
+    }
+}
@@ -1,5 +0,0 @@
-package encoders;
-
-public abstract class HashableLong {
-    public long hashValue;
-}
@@ -0,0 +1,188 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Parses new data into the symbols of an Encoder by repeating its merges. The Encoder creates the symbols in order,
+so the pair that became the oldest symbol is merged first, like during encoding. Equal pairs are merged from left to right.
+The pairs are kept in a heap of (symbol << 32 | position). When a pair is taken from the heap it is only merged when it
+is still there, otherwise it is skipped.
+Only the pairs are stored, so the memory used depends on the number of symbols and not on their length.
+Symbols that contain the end of a field are not used, the end of a field is always written with its own symbol.
+ */
+package encoders;
+
+import java.util.Arrays;
+
+class PairParser {
+    private final int[] literals;
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+
+    private int[] symbols;
+    private int[] next;
+    private int[] previous;
+    private long[] heap;
+    private int heapSize;
+
+    PairParser(Encoder encoder)
+    {
+        this(encoder.symbolCount());
+        for(int symbol = 0; symbol < encoder.symbolCount(); symbol++)
+            if(!encoder.hasEndSymbol(symbol))
+                add(symbol, encoder.referenceA(symbol), encoder.referenceB(symbol));
+    }
+
+    //The symbols are given by their references, like in the Encoder. A symbol with referenceA -1 is the end of a field.
+    PairParser(int[] referenceA, int[] referenceB)
+    {
+        this(referenceA.length);
+        for(int symbol = 0; symbol < referenceA.length; symbol++)
+            if(referenceA[symbol] >= 0)
+                add(symbol, referenceA[symbol], referenceB[symbol]);
+    }
+
+    private PairParser(int symbolCount)
+    {
+        literals = new int[256];
+        Arrays.fill(literals, -1);
+        int size = Integer.highestOneBit(Math.max(16, symbolCount)) << 2;
+        keys = new long[size];
+        Arrays.fill(keys, -1);
+        values = new int[size];
+        mask = size - 1;
+    }
+
+    //Shares the symbols of the other parser, but not its working arrays. A parser can only be used by one thread.
+    private PairParser(PairParser other)
+    {
+        literals = other.literals;
+        keys = other.keys;
+        values = other.values;
+        mask = other.mask;
+    }
+
+    PairParser copy()
+    {
+        return new PairParser(this);
+    }
+
+    private void add(int symbol, int referenceA, int referenceB)
+    {
+        if(referenceB < 0)
+            literals[referenceA] = symbol;
+        else
+            put(((long)referenceA << 32) | referenceB, symbol);
+    }
+
+    //Parses the bytes from 'from' to 'to' and writes the symbols in result, which must be at least as long.
+    //Returns the number of symbols. Every byte must have a literal symbol.
+    int parse(byte[] data, int from, int to, int[] result)
+    {
+        int n = to - from;
+        if(symbols == null || symbols.length < n) {
+            symbols = new int[n];
+            next = new int[n];
+            previous = new int[n];
+            heap = new long[Math.max(16, n)];
+        }
+        heapSize = 0;
+        for(int i = 0; i < n; i++)
+        {
+            symbols[i] = literals[data[from + i] & 0xFF];
+            if(symbols[i] < 0)
+                throw new IllegalArgumentException("The byte " + (data[from + i] & 0xFF) + " has no symbol.");
+            next[i] = i + 1;
+            previous[i] = i - 1;
+        }
+        for(int i = 0; i < n - 1; i++)
+            push(get(symbols[i], symbols[i + 1]), i);
+
+        while(heapSize > 0)
+        {
+            long entry = pop();
+            int merged = (int)(entry >>> 32);
+            int index = (int)entry;
+            int nextIndex = next[index];
+            if(symbols[index] < 0 || nextIndex >= n || get(symbols[index], symbols[nextIndex]) != merged)
+                continue;
+
+            symbols[index] = merged;
+            symbols[nextIndex] = -1;
+            next[index] = next[nextIndex];
+            if(next[index] < n)
+                previous[next[index]] = index;
+
+            if(previous[index] >= 0)
+                push(get(symbols[previous[index]], merged), previous[index]);
+            if(next[index] < n)
+                push(get(merged, symbols[next[index]]), index);
+        }
+
+        int count = 0;
+        for(int i = 0; i < n; i = next[i])
+            result[count++] = symbols[i];
+        return count;
+    }
+
+    //Returns the symbol of the pair, or -1.
+    private int get(int a, int b)
+    {
+        long key = ((long)a << 32) | b;
+        int index = (int)PairTable.hash64(key) & mask;
+        while(keys[index] != -1)
+        {
+            if(keys[index] == key)
+                return values[index];
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    private void put(long key, int value)
+    {
+        int index = (int)PairTable.hash64(key) & mask;
+        while(keys[index] != -1)
+            index = (index + 1) & mask;
+        keys[index] = key;
+        values[index] = value;
+    }
+
+    private void push(int merged, int index)
+    {
+        if(merged < 0)
+            return;
+        if(heapSize == heap.length)
+            heap = Arrays.copyOf(heap, heapSize << 1);
+        long entry = ((long)merged << 32) | index;
+        int i = heapSize++;
+        while(i > 0 && heap[(i - 1) >> 1] > entry)
+        {
+            heap[i] = heap[(i - 1) >> 1];
+            i = (i - 1) >> 1;
+        }
+        heap[i] = entry;
+    }
+
+    private long pop()
+    {
+        long result = heap[0];
+        long last = heap[--heapSize];
+        int i = 0;
+        while(true)
+        {
+            int child = 2 * i + 1;
+            if(child >= heapSize)
+                break;
+            if(child + 1 < heapSize && heap[child + 1] < heap[child])
+                child++;
+            if(heap[child] >= last)
+                break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = last;
+        return result;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+The symbol pairs of the Encoder. Every pair gets an id and its state is stored in arrays indexed by that id,
+so a pair costs 33 bytes plus its slot and no object. The ids of deleted pairs are reused.
+The pair values are found with open addressing and linear probing. A slot contains id + 1, or 0 when it is empty.
+Deleting shifts the following slots back, so there are no tombstones and the probe chains stay short.
+Both the slots and the arrays grow when needed.
+ */
+package encoders;
+
+import java.util.Arrays;
+
+class PairTable {
+    long[] pairs;
+    int[] count;
+    int[] change;
+    boolean[] touched;
+    //The first and last position of the pair in the symbol array. The positions in between are linked in the Encoder.
+    int[] firstIndex;
+    int[] lastIndex;
+    //The links of the bucket queue in the Encoder. A deleted id uses next to link to the next free id.
+    int[] previous;
+    int[] next;
+
+    private int[] slots;
+    private int mask;
+    private int size;
+    private int capacity;
+    private int free = -1;
+
+    PairTable()
+    {
+        slots = new int[1 << 12];
+        mask = slots.length - 1;
+        grow(1 << 10);
+    }
+
+    //Returns the id of the pair, or -1.
+    int get(long pair)
+    {
+        int index = (int)hash64(pair) & mask;
+        while(slots[index] != 0)
+        {
+            int id = slots[index] - 1;
+            if(pairs[id] == pair)
+                return id;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    //Adds a pair that is not in the table yet and returns its new id.
+    int add(long pair)
+    {
+        if(size >= slots.length >> 1)
+            rehash();
+        int id = free;
+        if(id >= 0)
+            free = next[id];
+        else {
+            if(capacity == pairs.length)
+                grow(pairs.length << 1);
+            id = capacity++;
+        }
+        pairs[id] = pair;
+        count[id] = 0;
+        change[id] = 0;
+        touched[id] = false;
+        firstIndex[id] = -1;
+        lastIndex[id] = -1;
+        previous[id] = -1;
+        next[id] = -1;
+        insert(id);
+        size++;
+        return id;
+    }
+
+    void delete(int id)
+    {
+        int index = (int)hash64(pairs[id]) & mask;
+        while(slots[index] != id + 1)
+            index = (index + 1) & mask;
+
+        //Move every following slot back when the empty slot is on the way from its home slot.
+        int empty = index;
+        while(true)
+        {
+            index = (index + 1) & mask;
+            if(slots[index] == 0)
+                break;
+            int home = (int)hash64(pairs[slots[index] - 1]) & mask;
+            if(((index - home) & mask) >= ((index - empty) & mask)) {
+                slots[empty] = slots[index];
+                empty = index;
+            }
+        }
+        slots[empty] = 0;
+
+        next[id] = free;
+        free = id;
+        size--;
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    private void insert(int id)
+    {
+        int index = (int)hash64(pairs[id]) & mask;
+        while(slots[index] != 0)
+            index = (index + 1) & mask;
+        slots[index] = id + 1;
+    }
+
+    private void rehash()
+    {
+        int[] old = slots;
+        slots = new int[old.length << 1];
+        mask = slots.length - 1;
+        for(int slot : old)
+            if(slot != 0)
+                insert(slot - 1);
+    }
+
+    private void grow(int length)
+    {
+        pairs = pairs == null ? new long[length] : Arrays.copyOf(pairs, length);
+        count = count == null ? new int[length] : Arrays.copyOf(count, length);
+        change = change == null ? new int[length] : Arrays.copyOf(change, length);
+        touched = touched == null ? new boolean[length] : Arrays.copyOf(touched, length);
+        firstIndex = firstIndex == null ? new int[length] : Arrays.copyOf(firstIndex, length);
+        lastIndex = lastIndex == null ? new int[length] : Arrays.copyOf(lastIndex, length);
+        previous = previous == null ? new int[length] : Arrays.copyOf(previous, length);
+        next = next == null ? new int[length] : Arrays.copyOf(next, length);
+    }
+
+    //Small shortened hash alg for a long value, -> MurmurHash64 made naked.
+    static long hash64(long a)
+    {
+        a *= 0xc6a4a7935bd1e995L;
+        return a ^ (a >>> 47);
+    }
+}
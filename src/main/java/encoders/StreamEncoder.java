@@ -0,0 +1,142 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+Encodes a file that does not fit in memory as one field. The memory that is used depends on the memory budget,
+not on the size of the file. A file that fits in the budget is encoded with the normal Encoder.
+1. The bytes of the file are counted, so every byte that is used gets a literal symbol.
+2. The symbols are found by the Encoder on a sample of the file: segments that are spread evenly over the file.
+   Every segment is a field. The Encoder uses about 21 bytes per input byte, so the sample is 1/24 of the budget.
+3. The file is read two more times in chunks of CHUNK_SIZE bytes, that are parsed by repeating the merges of the Encoder,
+   see PairParser. The first time the symbols are counted for the Huffman tree, the second time they are written.
+   A symbol never crosses the border of a chunk. An AsyncInputStream reads the next chunks while a chunk is parsed.
+The result can be read like the result of Encoder.encode.
+ */
+package encoders;
+
+import io.AsyncInputStream;
+import io.BitStreamWriter;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+public class StreamEncoder {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int CHUNK_SIZE = 1 << 18;
+    private static final int SEGMENT_SIZE = 1 << 20;
+    private static final int BYTES_PER_SAMPLE_BYTE = 24;
+
+    //Returns the bit position of the field, like Encoder.encode.
+    public static long[] encode(File input, OutputStream output, long memoryBudget, int maxCodeLength) throws IOException {
+        return encode(input, output, output, memoryBudget, maxCodeLength);
+    }
+
+    //Same as above, but the dictionary and the data can be written to different streams.
+    public static long[] encode(File input, OutputStream dictionaryWriter, OutputStream dataWriter, long memoryBudget, int maxCodeLength) throws IOException {
+        long sampleSize = Math.min(memoryBudget / BYTES_PER_SAMPLE_BYTE, Integer.MAX_VALUE / 8);
+        if(input.length() <= sampleSize)
+            return Encoder.encode(new byte[][]{Files.readAllBytes(input.toPath())}, dictionaryWriter, dataWriter, maxCodeLength);
+        if(sampleSize < SEGMENT_SIZE)
+            throw new IllegalArgumentException("The memory budget must be at least " + (long)SEGMENT_SIZE * BYTES_PER_SAMPLE_BYTE + " bytes.");
+
+        boolean[] used = countBytes(input);
+        Encoder encoder = Encoder.train(sample(input, sampleSize, used), 1);
+        PairParser parser = new PairParser(encoder);
+        HuffmanNode[] nodes = encoder.huffmanNodes();
+        encoder = null;
+
+        parse(input, parser, nodes, null, null);
+        CanonicalHuffmanTree tree = new CanonicalHuffmanTree(nodes, maxCodeLength);
+        BitStreamWriter treeWriter = new BitStreamWriter(dictionaryWriter);
+        BitStreamWriter writer = dictionaryWriter == dataWriter ? treeWriter : new BitStreamWriter(dataWriter);
+        tree.writeTree(treeWriter);
+        long dataStart = writer.length();
+        parse(input, parser, nodes, tree, writer);
+        System.out.println("Size of data:\t\t" + (writer.length() - dataStart) + " bytes");
+        treeWriter.close();
+        writer.close();
+        return new long[]{0};
+    }
+
+    private static boolean[] countBytes(File input) throws IOException {
+        boolean[] used = new boolean[256];
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try(InputStream stream = new AsyncInputStream(FileChannel.open(input.toPath()))) {
+            int length;
+            while((length = stream.read(buffer)) >= 0)
+                for(int i = 0; i < length; i++)
+                    used[buffer[i] & 0xFF] = true;
+        }
+        return used;
+    }
+
+    //Reads segments of SEGMENT_SIZE bytes that are spread evenly over the file. The last field contains every used byte
+    //that is not in the segments, so it gets a symbol too.
+    private static byte[][] sample(File input, long sampleSize, boolean[] used) throws IOException {
+        int segments = (int)(sampleSize / SEGMENT_SIZE);
+        byte[][] fields = new byte[segments + 1][];
+        boolean[] sampled = new boolean[256];
+        try(RandomAccessFile file = new RandomAccessFile(input, "r")) {
+            long step = (file.length() - SEGMENT_SIZE) / Math.max(1, segments - 1);
+            for(int i = 0; i < segments; i++)
+            {
+                fields[i] = new byte[SEGMENT_SIZE];
+                file.seek(i * step);
+                file.readFully(fields[i]);
+                for(byte b : fields[i])
+                    sampled[b & 0xFF] = true;
+            }
+        }
+
+        int missing = 0;
+        for(int i = 0; i < 256; i++)
+            if(used[i] && !sampled[i])
+                missing++;
+        fields[segments] = new byte[missing];
+        missing = 0;
+        for(int i = 0; i < 256; i++)
+            if(used[i] && !sampled[i])
+                fields[segments][missing++] = (byte)i;
+        return fields;
+    }
+
+    //Parses the file and ends it with the end of field symbol.
+    //Without a writer the symbols are counted in the nodes, otherwise their codes in the tree are written.
+    private static void parse(File input, PairParser parser, HuffmanNode[] nodes, CanonicalHuffmanTree tree, BitStreamWriter writer) throws IOException {
+        byte[] chunk = new byte[CHUNK_SIZE];
+        int[] symbols = new int[CHUNK_SIZE];
+        try(InputStream stream = new AsyncInputStream(FileChannel.open(input.toPath()))) {
+            while(true)
+            {
+                int length = 0;
+                while(length < chunk.length)
+                {
+                    int read = stream.read(chunk, length, chunk.length - length);
+                    if(read < 0)
+                        break;
+                    length += read;
+                }
+                if(length == 0)
+                    break;
+
+                int count = parser.parse(chunk, 0, length, symbols);
+                if(writer == null)
+                    for(int i = 0; i < count; i++)
+                        nodes[symbols[i]].frequency++;
+                else
+                    for(int i = 0; i < count; i++)
+                        writer.add(tree.codes[symbols[i]], tree.codeLengths[symbols[i]]);
+            }
+        }
+        if(writer == null)
+            nodes[Encoder.endOfLineSymbol].frequency++;
+        else
+            writer.add(tree.codes[Encoder.endOfLineSymbol], tree.codeLengths[Encoder.endOfLineSymbol]);
+    }
+}
@@ -0,0 +1,271 @@
+/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+
+A trie of the bytes of the symbols of a dictionary, to parse new data in one pass.
+The end of a field is the value 256 after the bytes, so the symbols that end a field are in the trie too.
+Node 0 is the root. The children of the root are in an array, the other edges are in a hash table with linear probing.
+An edge is one long: (node << 9 | value) << 25 | child, so a lookup reads one slot per probe. 0 is an empty slot.
+A node that ends a symbol stores that symbol.
+The trie uses memory for every node, so it is meant for a trained Dictionary and not for the symbols of a very big or
+very repetitive file. When it would get more than MAX_NODES nodes it is not made, see create.
+Two parsers:
+Greedy takes the longest symbol at every position.
+Optimal finds the parse with the least bits for the given code lengths: the cheapest way to reach every position is
+found from left to right by following the trie from every reachable position.
+ */
+package encoders;
+
+import java.util.Arrays;
+
+class SymbolTrie {
+    private static final int CHILD_MASK = (1 << 25) - 1;
+    private static final int END = 256;
+    //Above this number of nodes create returns null. The edges then need more than 128 MB.
+    private static final int MAX_NODES = 1 << 23;
+
+    private final int[] rootChildren;
+    private final long[] edges;
+    private final int mask;
+    private final int[] nodeSymbols;
+    private final int[] symbolLengths;
+    private final int[] symbolBits;
+
+    private int[] costs;
+    private int[] choices;
+
+    private SymbolTrie(int[] rootChildren, long[] edges, int[] nodeSymbols, int[] symbolLengths, int[] symbolBits)
+    {
+        this.rootChildren = rootChildren;
+        this.edges = edges;
+        this.mask = edges.length - 1;
+        this.nodeSymbols = nodeSymbols;
+        this.symbolLengths = symbolLengths;
+        this.symbolBits = symbolBits;
+    }
+
+    //The symbols are given by their references, like in the Encoder. A literal with referenceA -1 is the end of a field,
+    //a pair with referenceA -1 is not used. bits contains the length of the code of every symbol.
+    //Returns null when the trie would get more than MAX_NODES nodes, then the symbols can be parsed with a PairParser.
+    //Symbols that share their first bytes share their nodes, so the size depends on the symbols and not only on their length.
+    static SymbolTrie create(int[] referenceA, int[] referenceB, int[] bits)
+    {
+        int symbolCount = referenceA.length;
+        int[] symbolLengths = new int[symbolCount];
+        for(int symbol = 0; symbol < symbolCount; symbol++)
+            if(referenceA[symbol] >= 0 || referenceB[symbol] < 0)
+                symbolLengths[symbol] = referenceB[symbol] < 0 ? 1 : symbolLengths[referenceA[symbol]] + symbolLengths[referenceB[symbol]];
+
+        Edges edges = new Edges(Integer.highestOneBit(Math.max(16, symbolCount)) << 2);
+        int[] rootChildren = new int[END + 1];
+        Arrays.fill(rootChildren, -1);
+        int[] symbols = new int[Math.max(16, symbolCount)];
+        Arrays.fill(symbols, -1);
+
+        //A pair continues from the node of its first symbol with the bytes of its second symbol.
+        int[] ends = new int[symbolCount];
+        int[] stack = new int[64];
+        int nodeCount = 1;
+        for(int symbol = 0; symbol < symbolCount; symbol++)
+        {
+            if(referenceA[symbol] < 0 && referenceB[symbol] >= 0)
+                continue;
+            int node;
+            if(referenceB[symbol] < 0) {
+                int b = referenceA[symbol] < 0 ? END : referenceA[symbol];
+                if(rootChildren[b] < 0)
+                    rootChildren[b] = nodeCount++;
+                node = rootChildren[b];
+            }
+            else {
+                node = ends[referenceA[symbol]];
+                int stackSize = 0;
+                stack[stackSize++] = referenceB[symbol];
+                while(stackSize > 0)
+                {
+                    int part = stack[--stackSize];
+                    if(referenceB[part] < 0) {
+                        int b = referenceA[part] < 0 ? END : referenceA[part];
+                        int child = child(edges.table, edges.table.length - 1, node, b);
+                        if(child < 0) {
+                            if(nodeCount == MAX_NODES)
+                                return null;
+                            child = nodeCount++;
+                            edges.put(((long)node << 9) | b, child);
+                        }
+                        node = child;
+                    }
+                    else {
+                        if(stackSize + 2 > stack.length)
+                            stack = Arrays.copyOf(stack, stack.length << 1);
+                        stack[stackSize++] = referenceB[part];
+                        stack[stackSize++] = referenceA[part];
+                    }
+                }
+            }
+            ends[symbol] = node;
+            if(node >= symbols.length) {
+                int length = symbols.length;
+                symbols = Arrays.copyOf(symbols, Math.max(node + 1, length << 1));
+                Arrays.fill(symbols, length, symbols.length, -1);
+            }
+            symbols[node] = symbol;
+        }
+        int[] nodeSymbols = Arrays.copyOf(symbols, nodeCount);
+        if(nodeCount > symbols.length)
+            Arrays.fill(nodeSymbols, symbols.length, nodeCount, -1);
+        return new SymbolTrie(rootChildren, edges.table, nodeSymbols, symbolLengths, bits);
+    }
+
+    //Shares the trie of the other one, but not its working arrays. A SymbolTrie can only parse in one thread.
+    private SymbolTrie(SymbolTrie other)
+    {
+        rootChildren = other.rootChildren;
+        edges = other.edges;
+        mask = other.mask;
+        nodeSymbols = other.nodeSymbols;
+        symbolLengths = other.symbolLengths;
+        symbolBits = other.symbolBits;
+    }
+
+    SymbolTrie copy()
+    {
+        return new SymbolTrie(this);
+    }
+
+    //Parses the bytes from 'from' to 'to' with the longest symbol at every position and writes the symbols in result,
+    //which must be at least as long. Returns the number of symbols.
+    int parseGreedy(byte[] data, int from, int to, int[] result)
+    {
+        int count = 0;
+        int index = from;
+        while(index < to)
+        {
+            int node = root(data[index] & 0xFF);
+            int symbol = nodeSymbols[node];
+            int end = ++index;
+            while(index < to && (node = child(node, data[index] & 0xFF)) >= 0)
+            {
+                index++;
+                if(nodeSymbols[node] >= 0) {
+                    symbol = nodeSymbols[node];
+                    end = index;
+                }
+            }
+            result[count++] = symbol;
+            index = end;
+        }
+        return count;
+    }
+
+    //Same as above, but with the parse that uses the least bits.
+    int parseOptimal(byte[] data, int from, int to, int[] result)
+    {
+        return parseOptimal(data, from, to, false, result);
+    }
+
+    //With endOfField the bytes are followed by the end of a field, which is parsed too.
+    int parseOptimal(byte[] data, int from, int to, boolean endOfField, int[] result)
+    {
+        int bytes = to - from;
+        int n = endOfField ? bytes + 1 : bytes;
+        if(costs == null || costs.length <= n) {
+            costs = new int[n + 1];
+            choices = new int[n + 1];
+        }
+        costs[0] = 0;
+        Arrays.fill(costs, 1, n + 1, Integer.MAX_VALUE);
+
+        for(int i = 0; i < n; i++)
+        {
+            int cost = costs[i];
+            int node = i < bytes ? root(data[from + i] & 0xFF) : root(END);
+            int length = 1;
+            while(true)
+            {
+                int symbol = nodeSymbols[node];
+                if(symbol >= 0 && cost + symbolBits[symbol] < costs[i + length]) {
+                    costs[i + length] = cost + symbolBits[symbol];
+                    choices[i + length] = symbol;
+                }
+                int next = i + length;
+                if(next == n || (node = child(node, next < bytes ? data[from + next] & 0xFF : END)) < 0)
+                    break;
+                length++;
+            }
+        }
+
+        //Walk back from the end and reverse the symbols.
+        int count = 0;
+        for(int i = n; i > 0; i -= symbolLengths[result[count - 1]])
+            result[count++] = choices[i];
+        for(int i = 0, j = count - 1; i < j; i++, j--)
+        {
+            int temp = result[i];
+            result[i] = result[j];
+            result[j] = temp;
+        }
+        return count;
+    }
+
+    private int root(int value)
+    {
+        int node = rootChildren[value];
+        if(node < 0)
+            throw new IllegalArgumentException(value == END ? "The end of a field has no symbol." : "The byte " + value + " has no symbol.");
+        return node;
+    }
+
+    //Returns the child of the node for the byte or END, or -1.
+    private int child(int node, int b)
+    {
+        return child(edges, mask, node, b);
+    }
+
+    private static int child(long[] edges, int mask, int node, int b)
+    {
+        long key = ((long)node << 9) | b;
+        int index = (int)PairTable.hash64(key) & mask;
+        long edge;
+        while((edge = edges[index]) != 0)
+        {
+            if(edge >>> 25 == key)
+                return (int)edge & CHILD_MASK;
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    //The hash table of the edges while the trie is made. It doubles when it is half full.
+    private static class Edges {
+        long[] table;
+        int count;
+
+        Edges(int size)
+        {
+            table = new long[size];
+        }
+
+        void put(long key, int child)
+        {
+            if(++count > table.length >> 1) {
+                long[] old = table;
+                table = new long[old.length << 1];
+                for(long edge : old)
+                    if(edge != 0)
+                        insert(edge);
+            }
+            insert((key << 25) | child);
+        }
+
+        private void insert(long edge)
+        {
+            int mask = table.length - 1;
+            int index = (int)PairTable.hash64(edge >>> 25) & mask;
+            while(table[index] != 0)
+                index = (index + 1) & mask;
+            table[index] = edge;
+        }
+    }
+}
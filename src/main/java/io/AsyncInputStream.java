@@ -0,0 +1,141 @@
+package io;/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+ */
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//Reads a FileChannel ahead on its own thread, so the next buffers are read while the current one is used.
+//The buffers are made once and go around between the two threads, like in AsyncOutputStream.
+//Only one thread may read from the stream. Closing it stops the reader thread and closes the channel.
+public class AsyncInputStream extends InputStream {
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> full;
+    private final BlockingQueue<ByteBuffer> free;
+    private final Thread thread;
+    private ByteBuffer current;
+    private volatile IOException error;
+    private volatile boolean closed;
+    private boolean ended;
+
+    //An empty buffer is the end of the file.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    public AsyncInputStream(FileChannel channel) {
+        this(channel, 1 << 20, 4);
+    }
+
+    public AsyncInputStream(FileChannel channel, int bufferSize, int bufferCount) {
+        if(bufferCount < 2)
+            throw new IllegalArgumentException("At least 2 buffers are needed.");
+        this.channel = channel;
+        full = new ArrayBlockingQueue<>(bufferCount + 1);
+        free = new ArrayBlockingQueue<>(bufferCount);
+        for(int i = 0; i < bufferCount; i++)
+            free.add(ByteBuffer.allocate(bufferSize));
+        thread = new Thread(this::readBuffers, "AsyncInputStream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        if(!next())
+            return -1;
+        return current.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if(len == 0)
+            return 0;
+        if(!next())
+            return -1;
+        int length = Math.min(len, current.remaining());
+        current.get(b, off, length);
+        return length;
+    }
+
+    @Override
+    public int available() {
+        return current == null ? 0 : current.remaining();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed)
+            return;
+        closed = true;
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            channel.close();
+        }
+    }
+
+    //Makes sure the current buffer has bytes left. Returns false at the end of the file.
+    private boolean next() throws IOException {
+        if(current != null && current.hasRemaining())
+            return true;
+        if(ended)
+            return false;
+        try {
+            if(current != null)
+                free.put(current);
+            current = full.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+        if(current == END) {
+            current = null;
+            ended = true;
+            if(error != null)
+                throw new IOException("Reading failed.", error);
+            return false;
+        }
+        return true;
+    }
+
+    private void readBuffers() {
+        try {
+            while(true)
+            {
+                ByteBuffer buffer = free.take();
+                buffer.clear();
+                int read = 0;
+                while(buffer.hasRemaining())
+                {
+                    read = channel.read(buffer);
+                    if(read < 0)
+                        break;
+                }
+                buffer.flip();
+                if(buffer.hasRemaining())
+                    full.put(buffer);
+                if(read < 0)
+                    break;
+            }
+        } catch (InterruptedException e) {
+            return;
+        } catch (IOException e) {
+            if(!closed)
+                error = e;
+        }
+        try {
+            full.put(END);
+        } catch (InterruptedException e) {
+            //Closed while the end was handed over.
+        }
+    }
+}
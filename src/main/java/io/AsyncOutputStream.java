@@ -0,0 +1,142 @@
+package io;/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+ */
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+//Writes to a FileChannel on its own thread, so filling the next buffer and writing the last one happen at the same time.
+//The buffers are made once and go around between the two threads: a full buffer is handed to the writer thread, which
+//gives it back when it is written. Only one thread may write to the stream. Closing it waits for the writer thread
+//and closes the channel. An error of the writer thread is thrown by the next write, flush or close.
+public class AsyncOutputStream extends OutputStream {
+
+    private final FileChannel channel;
+    private final BlockingQueue<ByteBuffer> full;
+    private final BlockingQueue<ByteBuffer> free;
+    private final Thread thread;
+    private ByteBuffer current;
+    private volatile IOException error;
+    private boolean closed;
+
+    //An empty buffer tells the writer thread to stop.
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    public AsyncOutputStream(FileChannel channel) {
+        this(channel, 1 << 20, 4);
+    }
+
+    public AsyncOutputStream(FileChannel channel, int bufferSize, int bufferCount) {
+        if(bufferCount < 2)
+            throw new IllegalArgumentException("At least 2 buffers are needed.");
+        this.channel = channel;
+        full = new ArrayBlockingQueue<>(bufferCount + 1);
+        free = new ArrayBlockingQueue<>(bufferCount);
+        for(int i = 1; i < bufferCount; i++)
+            free.add(ByteBuffer.allocate(bufferSize));
+        current = ByteBuffer.allocate(bufferSize);
+        thread = new Thread(this::writeBuffers, "AsyncOutputStream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if(!current.hasRemaining())
+            pass();
+        current.put((byte)b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while(len > 0)
+        {
+            if(!current.hasRemaining())
+                pass();
+            int length = Math.min(len, current.remaining());
+            current.put(b, off, length);
+            off += length;
+            len -= length;
+        }
+    }
+
+    //Hands the bytes that are written so far to the writer thread. It does not wait until they are written.
+    @Override
+    public void flush() throws IOException {
+        if(current.position() > 0)
+            pass();
+        checkError();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if(closed)
+            return;
+        closed = true;
+        try {
+            if(current.position() > 0)
+                pass();
+            put(END);
+            thread.join();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } finally {
+            channel.close();
+        }
+        checkError();
+    }
+
+    private void pass() throws IOException {
+        checkError();
+        current.flip();
+        put(current);
+        try {
+            current = free.take();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void put(ByteBuffer buffer) throws IOException {
+        try {
+            full.put(buffer);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private void checkError() throws IOException {
+        if(error != null)
+            throw new IOException("Writing failed.", error);
+    }
+
+    //After an error the buffers are still given back, so the other thread is never blocked.
+    private void writeBuffers() {
+        try {
+            while(true)
+            {
+                ByteBuffer buffer = full.take();
+                if(buffer == END)
+                    return;
+                try {
+                    if(error == null)
+                        while(buffer.hasRemaining())
+                            channel.write(buffer);
+                } catch (IOException e) {
+                    error = e;
+                }
+                buffer.clear();
+                free.put(buffer);
+            }
+        } catch (InterruptedException e) {
+            error = new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package io;/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+ */
+
+import java.io.IOException;
+
+//The bits are read starting with the lowest bit of every byte.
+public abstract class BitReader {
+
+    public abstract int nextBit() throws IOException;
+
+    public abstract int nextBits(int length) throws IOException;
+
+    //Returns the next bits without consuming them. Length can be at most 32 bits.
+    public abstract int peekBits(int length) throws IOException;
+
+    //Consumes bits that are already peeked.
+    public abstract void skipBits(int length);
+}
@@ -6,55 +6,102 @@ Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
-public class BitStreamReader {
+//The bits are kept in a 64 bit cache. A fill loads 8 bytes at once when the buffer has them and keeps the whole bytes
+//that fit, so the cache holds at least 57 bits after a fill. The bits above cacheLeft are zero or the next bits of the
+//stream, so loading the same bytes again does not change them. Past the end of the stream zeros are read.
+public class BitStreamReader extends BitReader {
 
     private InputStream stream;
     private byte[] buffer;
+    private ByteBuffer words;
     private int bufferLength;
     private int bytePosition;
-    private int cache;
+    private long cache;
     private int cacheLeft;
 
     public BitStreamReader(InputStream stream) {
+        this(stream, 1 << 20);
+    }
+
+    //A small buffer is cheaper when only a little is read, the buffer must be at least 8 bytes.
+    public BitStreamReader(InputStream stream, int bufferSize) {
+        if(bufferSize < 8)
+            throw new IllegalArgumentException("The buffer must be at least 8 bytes.");
         this.stream = stream;
-        int bufferSize = 1 << 20;
         buffer = new byte[bufferSize];
+        words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
         bufferLength = 0;
         bytePosition = 0;
     }
 
-    public int nextBit() throws Exception {
-        if(cacheLeft < 1) {
-            while (cacheLeft < 24) {
-                if (bytePosition >= bufferLength) {
-                    bufferLength = stream.read(buffer);
-                    bytePosition = 0;
-                }
-                cache |= (buffer[bytePosition++] & 0xFF) << cacheLeft;
-                cacheLeft += 8;
-            }
-        }
-        int result = (cache & 1);
-        cache >>= 1;
+    @Override
+    public int nextBit() throws IOException {
+        if(cacheLeft < 1)
+            fill();
+        int result = (int)cache & 1;
+        cache >>>= 1;
         cacheLeft--;
         return result;
     }
 
+    @Override
     public int nextBits(int length) throws IOException {
-        if(cacheLeft < length) {
-            while (cacheLeft < 24) {
-                if (bytePosition >= bufferLength) {
-                    bufferLength = stream.read(buffer);
-                    bytePosition = 0;
-                }
-                cache |= (buffer[bytePosition++] & 0xFF) << cacheLeft;
-                cacheLeft += 8;
-            }
-        }
-        int result = (cache & ((1 << length) - 1));
-        cache >>= length;
+        if(cacheLeft < length)
+            fill();
+        int result = (int)(cache & ((1L << length) - 1));
+        cache >>>= length;
         cacheLeft -= length;
         return result;
     }
+
+    @Override
+    public int peekBits(int length) throws IOException {
+        if(cacheLeft < length)
+            fill();
+        return (int)(cache & ((1L << length) - 1));
+    }
+
+    @Override
+    public void skipBits(int length) {
+        cache >>>= length;
+        cacheLeft -= length;
+    }
+
+    private void fill() throws IOException {
+        if(bufferLength - bytePosition < 8)
+            read();
+        if(bufferLength - bytePosition >= 8) {
+            cache |= words.getLong(bytePosition) << cacheLeft;
+            int bytes = (63 - cacheLeft) >> 3;
+            bytePosition += bytes;
+            cacheLeft += bytes << 3;
+            return;
+        }
+        //The end of the stream, after the last bytes zeros are read.
+        while(cacheLeft <= 56 && bytePosition < bufferLength)
+        {
+            cache |= (long)(buffer[bytePosition++] & 0xFF) << cacheLeft;
+            cacheLeft += 8;
+        }
+        if(bytePosition == bufferLength)
+            cacheLeft = 64;
+    }
+
+    //Moves the bytes that are left to the front of the buffer and reads the stream after them.
+    private void read() throws IOException {
+        int left = bufferLength - bytePosition;
+        System.arraycopy(buffer, bytePosition, buffer, 0, left);
+        bytePosition = 0;
+        bufferLength = left;
+        while(bufferLength < 8)
+        {
+            int read = stream.read(buffer, bufferLength, buffer.length - bufferLength);
+            if(read < 0)
+                break;
+            bufferLength += read;
+        }
+    }
 }
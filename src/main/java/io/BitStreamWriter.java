@@ -6,12 +6,18 @@ Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.
 
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
+//The bits are collected in a 64 bit register, starting with the lowest bit. A full register is stored in the buffer as
+//one little endian word, so the buffer is only written and never cleared.
 public class BitStreamWriter {
     private byte[] buffer;
+    private ByteBuffer words;
     private final int bufferSize = 1 << 20;
     private int offset;
+    private long bits;
+    private int bitCount;
 
     private long length;
 
@@ -20,50 +26,52 @@ public class BitStreamWriter {
     public BitStreamWriter(OutputStream stream) {
         this.stream = stream;
         buffer = new byte[bufferSize];
+        words = ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
         offset = 0;
         length = 0;
     }
 
     public void add(BitSet bits) throws IOException {
-        long v = bits.getValue();
-        int length = bits.getLength();
+        add(bits.getValue(), bits.getLength());
+    }
 
-        while(length > 0) {
-            buffer[offset >> 3] |= v << (offset & 7);
-            int inc = Math.min(8 - (offset & 7), length);
-            offset += inc;
-            length -= inc;
-            this.length += inc;
-            v >>= inc;
-            if (offset == (bufferSize << 3)) {
+    //Adds the lowest length bits of value, length can be at most 64.
+    public void add(long value, int length) throws IOException {
+        if(length < 64)
+            value &= (1L << length) - 1;
+        bits |= value << bitCount;
+        this.length += length;
+        bitCount += length;
+        if(bitCount >= 64) {
+            if(offset == bufferSize) {
                 stream.write(buffer);
-                Arrays.fill(buffer, (byte) 0);
                 offset = 0;
             }
+            words.putLong(offset, bits);
+            offset += 8;
+            bitCount -= 64;
+            bits = bitCount == 0 ? 0 : value >>> (length - bitCount);
         }
     }
 
     public void addByte(int v) throws IOException {
-        int length = 8;
+        add(v & 0xFF, 8);
+    }
 
-        while(length > 0) {
-            buffer[offset >> 3] |= v << (offset & 7);
-            int inc = Math.min(8 - (offset & 7), length);
-            offset += inc;
-            length -= inc;
-            this.length += inc;
-            v >>= inc;
-            if (offset == (bufferSize << 3)) {
+    //Writes the buffer and the last bits. The last byte is filled with zeros, so the writer can not be used after this.
+    private void flush() throws IOException {
+        for(; bitCount > 0; bitCount -= 8)
+        {
+            if(offset == bufferSize) {
                 stream.write(buffer);
-                Arrays.fill(buffer, (byte) 0);
                 offset = 0;
             }
+            buffer[offset++] = (byte)bits;
+            bits >>>= 8;
         }
-    }
-
-    private void flush() throws IOException {
+        bitCount = 0;
         if(offset > 0) {
-            stream.write(buffer, 0, (offset >> 3) + (((offset & 7) == 0) ? 0 : 1));
+            stream.write(buffer, 0, offset);
             offset = 0;
         }
     }
@@ -0,0 +1,89 @@
+package io;/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+ */
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+//Reads bits from any position of a (memory mapped) ByteBuffer.
+//Only absolute gets are used on a little endian duplicate of the buffer, so many readers can share one buffer between threads.
+//The bits are kept in a 64 bit cache that is filled with 8 bytes at once, like in BitStreamReader.
+public class ByteBufferBitReader extends SeekableBitReader {
+
+    private final ByteBuffer buffer;
+    private final int limit;
+    private int bytePosition;
+    private long cache;
+    private int cacheLeft;
+
+    public ByteBufferBitReader(ByteBuffer buffer) {
+        this.buffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        this.limit = buffer.limit();
+    }
+
+    @Override
+    public void seek(long bitPosition) {
+        bytePosition = (int)(bitPosition >>> 3);
+        cache = 0;
+        cacheLeft = 0;
+        fill();
+        skipBits((int)(bitPosition & 7));
+    }
+
+    @Override
+    public long bitPosition() {
+        return ((long)bytePosition << 3) - cacheLeft;
+    }
+
+    @Override
+    public int nextBit() {
+        if(cacheLeft < 1)
+            fill();
+        int result = (int)cache & 1;
+        cache >>>= 1;
+        cacheLeft--;
+        return result;
+    }
+
+    @Override
+    public int nextBits(int length) {
+        if(cacheLeft < length)
+            fill();
+        int result = (int)(cache & ((1L << length) - 1));
+        cache >>>= length;
+        cacheLeft -= length;
+        return result;
+    }
+
+    @Override
+    public int peekBits(int length) {
+        if(cacheLeft < length)
+            fill();
+        return (int)(cache & ((1L << length) - 1));
+    }
+
+    @Override
+    public void skipBits(int length) {
+        cache >>>= length;
+        cacheLeft -= length;
+    }
+
+    //Past the end of the buffer zeros are read. A decoder can peek there, but never consumes them.
+    private void fill() {
+        if(limit - bytePosition >= 8) {
+            cache |= buffer.getLong(bytePosition) << cacheLeft;
+            int bytes = (63 - cacheLeft) >> 3;
+            bytePosition += bytes;
+            cacheLeft += bytes << 3;
+            return;
+        }
+        while (cacheLeft <= 56) {
+            if(bytePosition < limit)
+                cache |= (long)(buffer.get(bytePosition) & 0xFF) << cacheLeft;
+            bytePosition++;
+            cacheLeft += 8;
+        }
+    }
+}
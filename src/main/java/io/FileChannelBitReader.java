@@ -0,0 +1,126 @@
+package io;/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+ */
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+//Reads bits from any position of a FileChannel, also for files that are too large to memory map.
+//The bytes are read with positional reads into a small window, so many readers can share one channel between threads.
+//Seeking inside the window does not read the file again. The bits are cached like in BitStreamReader.
+public class FileChannelBitReader extends SeekableBitReader {
+
+    private final FileChannel channel;
+    private final byte[] window;
+    private final ByteBuffer words;
+    private long windowStart;
+    private int windowLength;
+    private int bytePosition;
+    private long cache;
+    private int cacheLeft;
+
+    public FileChannelBitReader(FileChannel channel) {
+        this(channel, 1 << 12);
+    }
+
+    //The window must be at least 8 bytes.
+    public FileChannelBitReader(FileChannel channel, int windowSize) {
+        if(windowSize < 8)
+            throw new IllegalArgumentException("The window must be at least 8 bytes.");
+        this.channel = channel;
+        window = new byte[windowSize];
+        words = ByteBuffer.wrap(window).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void seek(long bitPosition) throws IOException {
+        long position = bitPosition >>> 3;
+        if(position >= windowStart && position <= windowStart + windowLength)
+            bytePosition = (int)(position - windowStart);
+        else {
+            windowStart = position;
+            windowLength = 0;
+            bytePosition = 0;
+        }
+        cache = 0;
+        cacheLeft = 0;
+        fill();
+        skipBits((int)(bitPosition & 7));
+    }
+
+    @Override
+    public long bitPosition() {
+        return ((windowStart + bytePosition) << 3) - cacheLeft;
+    }
+
+    @Override
+    public int nextBit() throws IOException {
+        if(cacheLeft < 1)
+            fill();
+        int result = (int)cache & 1;
+        cache >>>= 1;
+        cacheLeft--;
+        return result;
+    }
+
+    @Override
+    public int nextBits(int length) throws IOException {
+        if(cacheLeft < length)
+            fill();
+        int result = (int)(cache & ((1L << length) - 1));
+        cache >>>= length;
+        cacheLeft -= length;
+        return result;
+    }
+
+    @Override
+    public int peekBits(int length) throws IOException {
+        if(cacheLeft < length)
+            fill();
+        return (int)(cache & ((1L << length) - 1));
+    }
+
+    @Override
+    public void skipBits(int length) {
+        cache >>>= length;
+        cacheLeft -= length;
+    }
+
+    private void fill() throws IOException {
+        if(windowLength - bytePosition < 8)
+            read();
+        if(windowLength - bytePosition >= 8) {
+            cache |= words.getLong(bytePosition) << cacheLeft;
+            int bytes = (63 - cacheLeft) >> 3;
+            bytePosition += bytes;
+            cacheLeft += bytes << 3;
+            return;
+        }
+        //Past the end of the file zeros are read, like in ByteBufferBitReader. The position keeps counting them,
+        //so bitPosition stays right.
+        while(cacheLeft <= 56)
+        {
+            if(bytePosition < windowLength)
+                cache |= (long)(window[bytePosition] & 0xFF) << cacheLeft;
+            bytePosition++;
+            cacheLeft += 8;
+        }
+    }
+
+    //Moves the window to the current position and reads it from the file.
+    private void read() throws IOException {
+        windowStart += bytePosition;
+        bytePosition = 0;
+        words.clear();
+        while(words.hasRemaining())
+        {
+            if(channel.read(words, windowStart + words.position()) < 0)
+                break;
+        }
+        windowLength = words.position();
+    }
+}
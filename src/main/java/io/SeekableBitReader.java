@@ -0,0 +1,15 @@
+package io;/*
+Written by Wybren Kapenga
+
+Licenced under CC BY-NC-SA 4.0 (https://creativecommons.org/licenses/by-nc-sa/4.0/)
+ */
+
+import java.io.IOException;
+
+//A BitReader that can start reading at any bit position, without reading the bits before it.
+public abstract class SeekableBitReader extends BitReader {
+
+    public abstract void seek(long bitPosition) throws IOException;
+
+    public abstract long bitPosition();
+}